@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Entry point of {@code benchmarks.jar}. Accepts the usual JMH command line and, unless {@code -rf}/{@code -rff}
+ * say otherwise, writes the results as JSON to {@code jmh-result.json} so that runs of different releases
+ * can be compared.
+ */
+public final class Benchmarks {
+    public static final String RESULT_FILE = "jmh-result.json";
+
+    private Benchmarks() {
+    }
+
+    public static void main( String[] args ) throws CommandLineOptionException, RunnerException, IOException {
+        final CommandLineOptions cmd = new CommandLineOptions( args );
+        if( cmd.shouldHelp() ) {
+            cmd.showHelp();
+            return;
+        }
+        if( cmd.shouldList() ) {
+            new Runner( cmd ).list();
+            return;
+        }
+
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent( cmd );
+        if( !cmd.getResultFormat().hasValue() ) options.resultFormat( ResultFormatType.JSON );
+        if( !cmd.getResult().hasValue() ) options.result( RESULT_FILE );
+
+        new Runner( options.build() ).run();
+    }
+}
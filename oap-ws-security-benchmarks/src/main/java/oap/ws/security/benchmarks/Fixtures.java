@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.benchmarks;
+
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import oap.ws.security.server.UserStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Populated storages shared by the benchmarks. Users are spread over {@link #ORGANIZATIONS} organizations
+ * except for {@link #ORGANIZATION}, which holds exactly the requested number of users.
+ */
+final class Fixtures {
+    static final String ORGANIZATION = "benchmark";
+    static final int ORGANIZATIONS = 16;
+
+    private Fixtures() {
+    }
+
+    static Path tempDirectory( String prefix ) throws IOException {
+        return Files.createTempDirectory( prefix );
+    }
+
+    static String email( int i ) {
+        return "user" + i + "@example.com";
+    }
+
+    static UserStorage userStorage( Path path, int users, int others, String password ) {
+        final UserStorage userStorage = new UserStorage( path );
+
+        final List<DefaultUser> batch = new ArrayList<>( users + others );
+        for( int i = 0; i < users; i++ ) batch.add( user( ORGANIZATION, email( i ), password ) );
+        for( int i = 0; i < others; i++ )
+            batch.add( user( "organization" + ( i % ORGANIZATIONS ), "other" + i + "@example.com", password ) );
+        userStorage.store( batch );
+
+        return userStorage;
+    }
+
+    static DefaultUser user( String organizationId, String email, String password ) {
+        final DefaultUser user = new DefaultUser( Role.USER, organizationId, email );
+        user.organizationName = organizationId;
+        user.password = password;
+        return user;
+    }
+
+    static void delete( Path path ) {
+        oap.io.Files.delete( path );
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.benchmarks;
+
+import oap.http.HttpResponse;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.PasswordHasher;
+import oap.ws.security.Role;
+import oap.ws.security.server.OrganizationStorage;
+import oap.ws.security.server.OrganizationWS;
+import oap.ws.security.server.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * The serialized response of {@link OrganizationWS#users} for an organization of {@link #users} users, with the rest
+ * of the storage spread over other organizations, and {@link OrganizationWS#userStore} including password hashing
+ * and the {@link oap.storage.FileStorage} write.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class OrganizationWSBenchmark {
+    private static final Optional<String> NO_CURSOR = Optional.empty();
+    private static final Optional<Integer> NO_LIMIT = Optional.empty();
+    private static final Optional<Boolean> NOT_DURABLE = Optional.empty();
+
+    @Param( { "1000", "100000", "1000000" } )
+    public int users;
+
+    @Param( { "1000" } )
+    public int others;
+
+    private Path path;
+    private UserStorage userStorage;
+    private OrganizationStorage organizationStorage;
+    private OrganizationWS organizationWS;
+    private DefaultUser admin;
+    private final AtomicInteger stored = new AtomicInteger();
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        path = Fixtures.tempDirectory( "organization-ws-benchmark" );
+        final PasswordHasher passwordHasher = new PasswordHasher( "benchmark" );
+
+        userStorage = Fixtures.userStorage( path.resolve( "users" ), users, others, passwordHasher.hashPassword( "password" ) );
+        organizationStorage = new OrganizationStorage( path.resolve( "organizations" ) );
+        organizationWS = new OrganizationWS( organizationStorage, userStorage, passwordHasher );
+
+        admin = new DefaultUser( Role.ADMIN, Fixtures.ORGANIZATION, "admin@example.com" );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        organizationStorage.close();
+        userStorage.close();
+        Fixtures.delete( path );
+    }
+
+    /**
+     * Drains the response entity the way the HTTP listener writes it, so the JSON serialization is measured too.
+     */
+    @Benchmark
+    public long users() throws IOException {
+        final HttpResponse response = organizationWS.users( Fixtures.ORGANIZATION, NO_CURSOR, NO_LIMIT, null );
+        final CountingOutputStream out = new CountingOutputStream();
+        response.contentEntity.writeTo( out );
+        return out.count;
+    }
+
+    @Benchmark
+    public HttpResponse userStore() {
+        final DefaultUser user = Fixtures.user( Fixtures.ORGANIZATION, "stored" + stored.incrementAndGet() + "@example.com", "password" );
+
+        return organizationWS.userStore( user, Fixtures.ORGANIZATION, admin, NOT_DURABLE );
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write( int b ) {
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) {
+            count += len;
+        }
+    }
+}
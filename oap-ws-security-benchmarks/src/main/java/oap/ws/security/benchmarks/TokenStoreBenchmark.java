@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.benchmarks;
+
+import oap.ws.security.AuthService;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.PasswordHasher;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.server.ServerAuthService;
+import oap.ws.security.server.ShardedTokenStore;
+import oap.ws.security.server.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Token validation (the security-interceptor path) and token generation of the library
+ * {@link AuthService} versus {@link ServerAuthService} backed by {@link ShardedTokenStore}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class TokenStoreBenchmark {
+    private static final String SALT = "benchmark";
+
+    @Param( { "AuthService", "ServerAuthService" } )
+    public String implementation;
+
+    @Param( { "100000" } )
+    public int tokens;
+
+    private Path path;
+    private UserStorage userStorage;
+    private ShardedTokenStore tokenStore;
+    private AuthService authService;
+    private String[] ids;
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        path = Files.createTempDirectory( "token-store-benchmark" );
+        userStorage = new UserStorage( path );
+
+        final PasswordHasher passwordHasher = new PasswordHasher( SALT );
+        final DefaultUser user = new DefaultUser( Role.USER, "12345", "benchmark@example.com" );
+        user.password = passwordHasher.hashPassword( "12345" );
+        userStorage.store( user );
+
+        if( "ServerAuthService".equals( implementation ) ) {
+            tokenStore = new ShardedTokenStore( 60, 64, tokens * 2, 1000 );
+            tokenStore.start();
+            authService = new ServerAuthService( userStorage, passwordHasher, tokenStore );
+        } else authService = new AuthService( userStorage, passwordHasher, 60 );
+
+        ids = new String[tokens];
+        for( int i = 0; i < tokens; i++ ) ids[i] = authService.generateToken( user.email, "12345" ).get().id;
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        if( tokenStore != null ) tokenStore.stop();
+        userStorage.close();
+        oap.io.Files.delete( path );
+    }
+
+    @Benchmark
+    @Threads( 8 )
+    public Optional<Token> getToken() {
+        return authService.getToken( ids[ThreadLocalRandom.current().nextInt( ids.length )] );
+    }
+
+    @Benchmark
+    @Threads( 8 )
+    public Optional<Token> getUnknownToken() {
+        return authService.getToken( "unknown" );
+    }
+
+    @Benchmark
+    @Threads( 8 )
+    public Optional<Token> generateToken() {
+        return authService.generateToken( "benchmark@example.com", "12345" );
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import oap.ws.security.Role;
+
+import java.io.Serializable;
+
+/**
+ * Organization-scoped API key of a service client. Only the digest of the key is stored; the key itself
+ * is returned once, by the request creating it.
+ */
+public class ApiKey implements Serializable {
+    private static final long serialVersionUID = -1826416353046519524L;
+
+    /**
+     * public part of the key, used to list and revoke it
+     */
+    public String id;
+    public String organizationId;
+    /**
+     * role of the requests authenticated by the key, {@link Role#USER} if not given
+     */
+    public Role role;
+    public String name;
+    /**
+     * ms
+     */
+    public long created;
+    public String createdBy;
+    /**
+     * hex SHA-256 of the key
+     */
+    public String digest;
+    /**
+     * the key, set in the response of its creation only
+     */
+    public String key;
+
+    public ApiKey() {
+    }
+
+    public ApiKey( String organizationId, Role role, String name ) {
+        this.organizationId = organizationId;
+        this.role = role;
+        this.name = name;
+    }
+}
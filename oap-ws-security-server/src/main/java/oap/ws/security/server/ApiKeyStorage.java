@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import oap.storage.FileStorage;
+import oap.util.Stream;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import org.joda.time.DateTime;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * API keys by the SHA-256 digest of the key.
+ * <p>
+ * A key is {@code k.<id>.<secret>} with 256 random bits of secret, so a plain digest is as strong as a salted,
+ * slow password hash and authentication is one digest and one hash map lookup. The lookup compares digests,
+ * never the secret, so its timing tells nothing about the key.
+ */
+public class ApiKeyStorage extends FileStorage<ApiKey> {
+    static final String PREFIX = "k.";
+    private static final SecureRandom random = new SecureRandom();
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial( () -> {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    } );
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public ApiKeyStorage( Path path ) {
+        super( path, apiKey -> apiKey.digest );
+    }
+
+    public static boolean isApiKey( String id ) {
+        return id.startsWith( PREFIX );
+    }
+
+    /**
+     * Generates and stores a new key.
+     *
+     * @return the stored key with {@link ApiKey#key} set, the only place the key is ever seen
+     */
+    public ApiKey create( String organizationId, Role role, String name, String createdBy ) {
+        final String id = random( 9 );
+        final String key = PREFIX + id + "." + random( 32 );
+
+        final ApiKey apiKey = new ApiKey( organizationId, role != null ? role : Role.USER, name );
+        apiKey.id = id;
+        apiKey.created = System.currentTimeMillis();
+        apiKey.createdBy = createdBy;
+        apiKey.digest = digest( key );
+        store( apiKey );
+
+        final ApiKey created = withoutDigest( apiKey );
+        created.key = key;
+        return created;
+    }
+
+    /**
+     * @return a token of the key owner, not stored anywhere: a revoked key stops working at once
+     */
+    public Optional<Token> authenticate( String key ) {
+        return get( digest( key ) ).map( apiKey -> {
+            final Token token = new Token();
+            token.id = key;
+            token.created = new DateTime( apiKey.created );
+            token.user = new DefaultUser( apiKey.role, apiKey.organizationId, "api-key." + apiKey.id );
+            return token;
+        } );
+    }
+
+    /**
+     * Keys of the organization, without digests.
+     */
+    public Stream<ApiKey> selectByOrganization( String organizationId ) {
+        return select()
+            .filter( apiKey -> organizationId.equals( apiKey.organizationId ) )
+            .map( ApiKeyStorage::withoutDigest );
+    }
+
+    /**
+     * @return false if the organization has no key {@code id}
+     */
+    public boolean revoke( String organizationId, String id ) {
+        final Optional<ApiKey> apiKey = select()
+            .filter( k -> id.equals( k.id ) && organizationId.equals( k.organizationId ) )
+            .findAny();
+        apiKey.ifPresent( k -> delete( k.digest ) );
+        return apiKey.isPresent();
+    }
+
+    public void revokeByOrganization( String organizationId ) {
+        select()
+            .filter( apiKey -> organizationId.equals( apiKey.organizationId ) )
+            .toList()
+            .forEach( apiKey -> delete( apiKey.digest ) );
+    }
+
+    static String digest( String key ) {
+        final byte[] hash = sha256.get().digest( key.getBytes( StandardCharsets.UTF_8 ) );
+
+        final char[] hex = new char[hash.length * 2];
+        for( int i = 0; i < hash.length; i++ ) {
+            hex[i * 2] = HEX[( hash[i] >> 4 ) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String( hex );
+    }
+
+    private static String random( int bytes ) {
+        final byte[] value = new byte[bytes];
+        random.nextBytes( value );
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( value );
+    }
+
+    private static ApiKey withoutDigest( ApiKey apiKey ) {
+        final ApiKey result = new ApiKey( apiKey.organizationId, apiKey.role, apiKey.name );
+        result.id = apiKey.id;
+        result.created = apiKey.created;
+        result.createdBy = apiKey.createdBy;
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import java.io.Serializable;
+
+/**
+ * One entry of the {@link AuditLog}.
+ */
+public class AuditEvent implements Serializable {
+    private static final long serialVersionUID = 6297409837105127311L;
+
+    public enum Type {
+        LOGIN, LOGIN_FAILED, LOGOUT,
+        USER_STORE, USER_DELETE, USERS_BULK,
+        ORGANIZATION_STORE, ORGANIZATION_DELETE,
+        API_KEY_CREATE, API_KEY_REVOKE,
+        /**
+         * {@link #count} events were dropped on a full buffer before this point
+         */
+        DROPPED
+    }
+
+    /**
+     * ms
+     */
+    public long time;
+    public Type type;
+    /**
+     * email of the acting user, null when the endpoint does not know it
+     */
+    public String actor;
+    public String organizationId;
+    /**
+     * email of the user or id of the organization acted on
+     */
+    public String subject;
+    public long count;
+
+    public AuditEvent() {
+    }
+
+    public AuditEvent( long time, Type type, String actor, String organizationId, String subject, long count ) {
+        this.time = time;
+        this.type = type;
+        this.actor = actor;
+        this.organizationId = organizationId;
+        this.subject = subject;
+        this.count = count;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.json.Binder;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Security audit trail: logins, logouts, user and organization changes.
+ * <p>
+ * Request threads publish to a lock-free {@link RingBuffer} and return; a background writer drains it every
+ * {@code flushInterval} ms and appends the events as JSON lines to gzip files in {@code path}. A file is
+ * never reopened: a new one, {@code audit-<UTC start time>-<sequence>.log.gz}, is started every {@code rotation} minutes,
+ * once {@code maxFileSize} uncompressed bytes are written, and on every start. Every drain ends with a gzip
+ * sync flush, so a crash loses at most the events of one interval.
+ * <p>
+ * Drop policy: publishing never blocks. When the buffer is full the new event is dropped and counted
+ * ({@code audit.dropped}); the writer records the number of events dropped since its previous drain as a
+ * {@link AuditEvent.Type#DROPPED} event at the position of the gap, so an incomplete trail is visible in the
+ * trail itself.
+ */
+@Slf4j
+public class AuditLog {
+    private static final AuditLog DISABLED = new AuditLog();
+
+    private final Path path;
+    private final RingBuffer<AuditEvent> buffer;
+    private final long flushInterval;
+    private final long rotation;
+    private final long maxFileSize;
+    private final ScheduledExecutorService writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final LongAdder published = SecurityMetrics.counter( "audit.published" );
+    private final LongAdder droppedTotal = SecurityMetrics.counter( "audit.dropped" );
+    private final LongAdder written = SecurityMetrics.counter( "audit.written" );
+
+    private OutputStream out;
+    private long opened;
+    private long size;
+    private int sequence;
+
+    /**
+     * @param bufferSize    events, rounded up to a power of two
+     * @param flushInterval ms
+     * @param rotation      minutes
+     * @param maxFileSize   uncompressed bytes
+     */
+    public AuditLog( Path path, int bufferSize, long flushInterval, long rotation, long maxFileSize ) {
+        this.path = path;
+        this.buffer = new RingBuffer<>( bufferSize );
+        this.flushInterval = flushInterval;
+        this.rotation = MINUTES.toMillis( rotation );
+        this.maxFileSize = maxFileSize;
+        this.writer = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread thread = new Thread( r, "audit-log-writer" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+
+        SecurityMetrics.gauge( "audit.pending", buffer::size );
+    }
+
+    private AuditLog() {
+        this.path = null;
+        this.buffer = null;
+        this.flushInterval = 0;
+        this.rotation = 0;
+        this.maxFileSize = 0;
+        this.writer = null;
+    }
+
+    /**
+     * @return an audit log discarding everything
+     */
+    public static AuditLog disabled() {
+        return DISABLED;
+    }
+
+    public void start() {
+        if( writer == null ) return;
+
+        try {
+            Files.createDirectories( path );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        writer.scheduleWithFixedDelay( this::drainQuietly, flushInterval, flushInterval, MILLISECONDS );
+    }
+
+    /**
+     * Writes the buffered events and closes the current file.
+     */
+    public void stop() {
+        if( writer == null ) return;
+
+        writer.shutdown();
+        try {
+            writer.awaitTermination( 10, SECONDS );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized( this ) {
+            drainQuietly();
+            try {
+                if( out != null ) out.close();
+            } catch( IOException e ) {
+                log.error( "cannot close audit file", e );
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Never blocks, see the drop policy.
+     *
+     * @param actor email of the acting user, null if unknown
+     * @return false if the event was dropped
+     */
+    public boolean publish( AuditEvent.Type type, String actor, String organizationId, String subject ) {
+        if( buffer == null ) return true;
+
+        if( buffer.offer( new AuditEvent( System.currentTimeMillis(), type, actor, organizationId, subject, 0 ) ) ) {
+            published.increment();
+            return true;
+        }
+
+        dropped.incrementAndGet();
+        droppedTotal.increment();
+        return false;
+    }
+
+    /**
+     * Writes everything published so far.
+     *
+     * @return number of events written
+     */
+    synchronized int drain() throws IOException {
+        int count = 0;
+        AuditEvent event;
+        while( ( event = buffer.poll() ) != null ) {
+            write( event );
+            count++;
+        }
+
+        final long lost = dropped.getAndSet( 0 );
+        if( lost > 0 ) write( new AuditEvent( System.currentTimeMillis(), AuditEvent.Type.DROPPED, null, null, null, lost ) );
+
+        if( out != null && ( count > 0 || lost > 0 ) ) out.flush();
+        written.add( count );
+        return count;
+    }
+
+    private void write( AuditEvent event ) throws IOException {
+        final byte[] line = ( Binder.json.marshal( event ) + "\n" ).getBytes( UTF_8 );
+
+        final long now = System.currentTimeMillis();
+        if( out == null || now - opened >= rotation || size + line.length > maxFileSize ) open( now );
+
+        out.write( line );
+        size += line.length;
+    }
+
+    private void open( long now ) throws IOException {
+        if( out != null ) out.close();
+
+        final SimpleDateFormat format = new SimpleDateFormat( "yyyyMMdd-HHmmss-SSS" );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        final Path file = path.resolve( String.format( "audit-%s-%04d.log.gz", format.format( new Date( now ) ), sequence++ ) );
+
+        out = new GZIPOutputStream( new BufferedOutputStream( Files.newOutputStream( file, CREATE_NEW ) ), 64 * 1024, true );
+        opened = now;
+        size = 0;
+        log.debug( "audit file {} started", file );
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch( Exception e ) {
+            log.error( "audit log write failed", e );
+        }
+    }
+}
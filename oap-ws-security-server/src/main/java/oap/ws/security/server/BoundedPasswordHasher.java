@@ -0,0 +1,210 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.PasswordHasher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Password hasher running hashes on a fixed pool with a bounded queue.
+ * <p>
+ * Login ({@code AuthService}) and {@link OrganizationWS} share one instance, so hashing can never
+ * take more than {@code threads} cores. When the queue is full the request fails fast with
+ * {@link HashingOverloadedException} (503) instead of queuing without limit.
+ * <p>
+ * Bulk hashing ({@link #hashPasswords(List)}) is split into chunks of {@value #BULK_CHUNK} passwords, at most
+ * half of the pool in flight across all bulk jobs, so interactive hashes always find a free thread or
+ * queue behind a few short chunks.
+ */
+@Slf4j
+public class BoundedPasswordHasher extends PasswordHasher {
+    static final int BULK_CHUNK = 16;
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * chunks of bulk jobs submitted to the pool and not finished yet
+     */
+    private final Semaphore bulkSlots;
+    private final int retryAfter;
+    private final LongAdder hashed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+
+    /**
+     * @param threads    hashing threads, 0 - number of available processors
+     * @param queueSize  hashes waiting for a thread before new ones are rejected
+     * @param retryAfter seconds, suggested to rejected clients
+     */
+    public BoundedPasswordHasher( String salt, int threads, int queueSize, int retryAfter ) {
+        super( salt );
+
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger counter = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor( poolSize, poolSize, 0, MILLISECONDS,
+            new ArrayBlockingQueue<>( queueSize ),
+            r -> {
+                final Thread thread = new Thread( r, "password-hasher-" + counter.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy() );
+        this.retryAfter = retryAfter;
+        this.bulkSlots = new Semaphore( Math.max( 1, poolSize / 2 ) );
+
+        log.info( "password hashing pool: threads = {}, queue = {}", poolSize, queueSize );
+    }
+
+    @Override
+    public String hashPassword( String password ) {
+        return execute( () -> {
+            final long start = System.nanoTime();
+            final String hash = super.hashPassword( password );
+            SecurityMetrics.HASH.recordSince( start );
+            hashed.increment();
+            return hash;
+        } );
+    }
+
+    /**
+     * Hashes the passwords in parallel on the pool, {@value #BULK_CHUNK} per task. The caller blocks while
+     * the bulk share of the pool is busy. On failure the chunks already submitted run to completion, they are short.
+     */
+    public List<String> hashPasswords( List<String> passwords ) {
+        final List<Future<List<String>>> chunks = new ArrayList<>();
+
+        for( int from = 0; from < passwords.size(); from += BULK_CHUNK ) {
+            final List<String> chunk = passwords.subList( from, Math.min( from + BULK_CHUNK, passwords.size() ) );
+            try {
+                bulkSlots.acquire();
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new HashingOverloadedException( retryAfter );
+            }
+            try {
+                chunks.add( submit( () -> {
+                    try {
+                        final List<String> hashes = new ArrayList<>( chunk.size() );
+                        for( String password : chunk ) {
+                            final long start = System.nanoTime();
+                            hashes.add( super.hashPassword( password ) );
+                            SecurityMetrics.HASH.recordSince( start );
+                        }
+                        hashed.add( chunk.size() );
+                        return hashes;
+                    } finally {
+                        bulkSlots.release();
+                    }
+                } ) );
+            } catch( HashingOverloadedException e ) {
+                bulkSlots.release();
+                throw e;
+            }
+        }
+
+        final List<String> result = new ArrayList<>( passwords.size() );
+        for( Future<List<String>> chunk : chunks ) result.addAll( await( chunk ) );
+        return result;
+    }
+
+    <T> T execute( Callable<T> task ) {
+        return await( submit( task ) );
+    }
+
+    private <T> Future<T> submit( Callable<T> task ) {
+        final long submitted = System.nanoTime();
+
+        try {
+            return executor.submit( () -> {
+                final long waited = System.nanoTime() - submitted;
+                waitTime.add( waited );
+                SecurityMetrics.HASH_WAIT.record( waited );
+                return task.call();
+            } );
+        } catch( RejectedExecutionException e ) {
+            rejected.increment();
+            throw new HashingOverloadedException( retryAfter );
+        }
+    }
+
+    private <T> T await( Future<T> future ) {
+        try {
+            return future.get();
+        } catch( InterruptedException e ) {
+            future.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new HashingOverloadedException( retryAfter );
+        } catch( ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            if( cause instanceof RuntimeException ) throw ( RuntimeException ) cause;
+            throw new IllegalStateException( cause );
+        }
+    }
+
+    /**
+     * hashes waiting for a thread
+     */
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int activeCount() {
+        return executor.getActiveCount();
+    }
+
+    public long hashed() {
+        return hashed.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * total time tasks spent in the queue, ms
+     */
+    public long totalWaitTime() {
+        return NANOSECONDS.toMillis( waitTime.sum() );
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.extern.slf4j.Slf4j;
+import oap.json.Binder;
+import oap.ws.security.DefaultUser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parses a bulk import body: either a JSON array of users or NDJSON, one user per line.
+ */
+@Slf4j
+final class BulkUsers {
+    private BulkUsers() {
+    }
+
+    /**
+     * @return users in request order, {@code null} in place of a malformed NDJSON line
+     */
+    static List<DefaultUser> parse( byte[] body ) {
+        int i = 0;
+        while( i < body.length && Character.isWhitespace( body[i] ) ) i++;
+
+        if( i < body.length && body[i] == '[' )
+            return Binder.json.unmarshal( new TypeReference<List<DefaultUser>>() {}, new String( body, UTF_8 ) );
+
+        final List<DefaultUser> users = new ArrayList<>();
+        try( BufferedReader reader = new BufferedReader( new InputStreamReader( new ByteArrayInputStream( body ), UTF_8 ) ) ) {
+            String line;
+            while( ( line = reader.readLine() ) != null ) {
+                if( line.trim().isEmpty() ) continue;
+
+                try {
+                    users.add( Binder.json.unmarshal( DefaultUser.class, line ) );
+                } catch( RuntimeException e ) {
+                    log.trace( "malformed user: {}", line, e );
+                    users.add( null );
+                }
+            }
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        return users;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import java.io.Serializable;
+
+/**
+ * One mutation of a storage, numbered by the storage {@link ChangeLog}.
+ */
+public class Change<T> implements Serializable {
+    private static final long serialVersionUID = 8187435227393961237L;
+
+    public long sequence;
+    public Type type;
+    public String id;
+    /**
+     * stored object, {@code null} for {@link Type#DELETE}
+     */
+    public T value;
+
+    public Change() {
+    }
+
+    public Change( long sequence, Type type, String id, T value ) {
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.value = value;
+    }
+
+    public enum Type {
+        STORE, DELETE
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes of a storage after a given sequence.
+ * <p>
+ * When the requested sequence can't be served incrementally (unknown epoch, or it has been evicted
+ * from the change log) the batch is a {@code snapshot}: a store of every record, the receiver
+ * drops whatever it holds that is not in the snapshot. A paged snapshot spans several batches,
+ * the last one has no {@link #after}.
+ */
+public class ChangeBatch<T> implements Serializable {
+    private static final long serialVersionUID = -3046776837580227512L;
+
+    /**
+     * identifies the change log instance, sequences of different epochs are unrelated
+     */
+    public String epoch;
+    /**
+     * sequence to ask the next batch from
+     */
+    public long lastSequence;
+    public boolean snapshot;
+    public List<Change<T>> changes = new ArrayList<>();
+    /**
+     * id to continue a paged snapshot after, {@code null} once the snapshot is complete
+     */
+    public String after;
+
+    public ChangeBatch() {
+    }
+
+    public ChangeBatch( String epoch, long lastSequence, boolean snapshot, List<Change<T>> changes ) {
+        this.epoch = epoch;
+        this.lastSequence = lastSequence;
+        this.snapshot = snapshot;
+        this.changes = changes;
+    }
+
+    public ChangeBatch( String epoch, long lastSequence, boolean snapshot, List<Change<T>> changes, String after ) {
+        this( epoch, lastSequence, snapshot, changes );
+        this.after = after;
+    }
+}
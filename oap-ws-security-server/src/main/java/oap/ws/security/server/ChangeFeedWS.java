@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.WsMethod;
+import oap.ws.WsParam;
+import oap.ws.security.WsSecurity;
+import oap.ws.validate.ValidationErrors;
+import oap.ws.validate.WsValidate;
+
+import java.util.Optional;
+
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static oap.http.Request.HttpMethod.GET;
+import static oap.ws.WsParam.From.QUERY;
+import static oap.ws.security.Role.ADMIN;
+
+/**
+ * Incremental feed of organization and user stores and deletes, for downstream caches.
+ * <p>
+ * The first request, without {@code since}, returns snapshots of both storages, paged by {@code limit} like
+ * the changes; every response carries the {@code next} position to continue from. With {@code wait} an empty
+ * response is held for up to {@code wait} ms (at most {@value #MAX_WAIT}) until something changes (long poll).
+ */
+public class ChangeFeedWS {
+    /**
+     * A waiting poll blocks an HTTP worker thread for its whole wait, so every subscriber in a long poll costs
+     * one worker. Kept short so that a handful of subscribers can't starve the pool, clients simply poll again.
+     */
+    static final long MAX_WAIT = 5_000;
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10_000;
+
+    private final UserStorage userStorage;
+    private final OrganizationStorage organizationStorage;
+    private final Object monitor = new Object();
+    private long changes;
+
+    public ChangeFeedWS( UserStorage userStorage, OrganizationStorage organizationStorage ) {
+        this.userStorage = userStorage;
+        this.organizationStorage = organizationStorage;
+
+        userStorage.onChange( this::changed );
+        organizationStorage.onChange( this::changed );
+    }
+
+    @WsMethod( method = GET, path = "/" )
+    @WsSecurity( role = ADMIN )
+    @WsValidate( { "validateLimit" } )
+    public SecurityChanges changes( @WsParam( from = QUERY ) Optional<String> since,
+                                    @WsParam( from = QUERY ) Optional<Integer> limit,
+                                    @WsParam( from = QUERY ) Optional<Long> wait ) throws InterruptedException {
+        final String[] position = since.map( s -> s.split( ":", -1 ) ).filter( p -> p.length == 6 ).orElse( new String[6] );
+        final int max = Math.min( limit.orElse( DEFAULT_LIMIT ), MAX_LIMIT );
+        final long deadline = System.currentTimeMillis() + Math.min( wait.orElse( 0L ), MAX_WAIT );
+
+        while( true ) {
+            final long observed;
+            synchronized( monitor ) {
+                observed = changes;
+            }
+
+            final SecurityChanges result = new SecurityChanges(
+                organizationStorage.changes( position[0], sequence( position[1] ), SecurityChanges.decode( position[2] ), max ),
+                userStorage.changes( position[3], sequence( position[4] ), SecurityChanges.decode( position[5] ), max ) );
+
+            final long remaining = deadline - System.currentTimeMillis();
+            if( !result.isEmpty() || remaining <= 0 ) return result;
+
+            synchronized( monitor ) {
+                if( changes == observed ) monitor.wait( remaining );
+            }
+        }
+    }
+
+    @SuppressWarnings( "unused" )
+    public ValidationErrors validateLimit( Optional<Integer> limit ) {
+        return limit.isPresent() && limit.get() < 1
+            ? ValidationErrors.error( HTTP_BAD_REQUEST, "limit must be positive" ) : ValidationErrors.empty();
+    }
+
+    private void changed() {
+        synchronized( monitor ) {
+            changes++;
+            monitor.notifyAll();
+        }
+    }
+
+    private static long sequence( String value ) {
+        try {
+            return value != null ? Long.parseLong( value ) : 0;
+        } catch( NumberFormatException e ) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Bounded, monotonically sequenced log of the latest storage mutations.
+ * <p>
+ * Keeps the last {@code capacity} changes in a ring. Readers behind the ring, or from another
+ * {@link #epoch}, get a snapshot instead.
+ */
+public class ChangeLog<T> {
+    public final String epoch = UUID.randomUUID().toString();
+    private final Change<T>[] ring;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private long lastSequence;
+
+    @SuppressWarnings( "unchecked" )
+    public ChangeLog( int capacity ) {
+        this.ring = new Change[capacity];
+    }
+
+    public long append( Change.Type type, String id, T value ) {
+        final long sequence;
+        synchronized( this ) {
+            sequence = ++lastSequence;
+            ring[( int ) ( sequence % ring.length )] = new Change<>( sequence, type, id, value );
+        }
+        for( Runnable listener : listeners ) listener.run();
+        return sequence;
+    }
+
+    /**
+     * @param listener called after every append, on the appending thread
+     */
+    public void addListener( Runnable listener ) {
+        listeners.add( listener );
+    }
+
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Changes after {@code sequence}, or a page of at most {@code limit} records of a snapshot in {@code id} order.
+     * Changes racing with the snapshot are replayed from its sequence, applying them twice is harmless.
+     *
+     * @param after   {@link ChangeBatch#after} of the previous snapshot page, {@code null} otherwise
+     * @param ids     sorted ids of all records of the storage, read only if a snapshot is needed
+     * @param records record by id
+     */
+    public ChangeBatch<T> since( String epoch, long sequence, String after, int limit,
+                                 NavigableSet<String> ids, Function<String, Optional<T>> records ) {
+        if( after != null && this.epoch.equals( epoch ) ) return page( sequence, after, limit, ids, records );
+
+        final ChangeBatch<T> batch = incremental( epoch, sequence, limit );
+        return batch != null ? batch : page( lastSequence(), null, limit, ids, records );
+    }
+
+    private synchronized ChangeBatch<T> incremental( String epoch, long sequence, int limit ) {
+        if( !this.epoch.equals( epoch ) || sequence < lastSequence - ring.length || sequence > lastSequence ) return null;
+
+        final List<Change<T>> changes = new ArrayList<>();
+        for( long s = sequence + 1; s <= lastSequence && changes.size() < limit; s++ )
+            changes.add( ring[( int ) ( s % ring.length )] );
+
+        final long last = changes.isEmpty() ? sequence : changes.get( changes.size() - 1 ).sequence;
+        return new ChangeBatch<>( this.epoch, last, false, changes );
+    }
+
+    /**
+     * A page starts right after {@code after} in the id index, so it costs O(log n + limit) whatever the storage size.
+     * Ids deleted since they were read are skipped.
+     */
+    private ChangeBatch<T> page( long snapshotSequence, String after, int limit,
+                                 NavigableSet<String> ids, Function<String, Optional<T>> records ) {
+        final Iterator<String> tail = ( after != null ? ids.tailSet( after, false ) : ids ).iterator();
+        final List<Change<T>> changes = new ArrayList<>();
+
+        while( changes.size() < limit && tail.hasNext() ) {
+            final String id = tail.next();
+            final Optional<T> value = records.apply( id );
+            if( value.isPresent() ) changes.add( new Change<>( snapshotSequence, Change.Type.STORE, id, value.get() ) );
+        }
+
+        final String next = tail.hasNext() ? changes.get( changes.size() - 1 ).id : null;
+        return new ChangeBatch<>( this.epoch, snapshotSequence, true, changes, next );
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Cursor paging over a sorted id index: a page starts right after the cursor id,
+ * so fetching the next page costs O(log n + limit) whatever the collection size.
+ */
+final class Cursors {
+    private Cursors() {
+    }
+
+    static Stream<String> page( NavigableSet<String> ids, Optional<String> cursor, Optional<Integer> limit ) {
+        final NavigableSet<String> tail = cursor.map( c -> ids.tailSet( c, false ) ).orElse( ids );
+        final Stream<String> stream = tail.stream();
+
+        return limit.map( l -> stream.limit( l ) ).orElse( stream );
+    }
+
+    /**
+     * Ids starting with {@code prefix}, in O(log n + limit): the matches are a contiguous range of the index.
+     */
+    static Stream<String> prefix( NavigableSet<String> ids, String prefix, int limit ) {
+        return ids.subSet( prefix, true, prefix + Character.MAX_VALUE, false ).stream().limit( limit );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.http.HttpResponse;
+import oap.http.Request;
+import oap.util.Stream;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static org.apache.http.entity.ContentType.APPLICATION_JSON;
+
+/**
+ * Conditional GET support: entity tags derived from storage versions, and {@code If-None-Match} handling.
+ * <p>
+ * A tag is the change log epoch of the storage plus a version, so tags issued before a restart never match.
+ */
+final class ETags {
+    static final String ETAG = "ETag";
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    private ETags() {
+    }
+
+    static String etag( String epoch, long version ) {
+        return "\"" + epoch + "-" + version + "\"";
+    }
+
+    /**
+     * @return true if {@code If-None-Match} of the request lists {@code etag}, or is {@code *}
+     */
+    static boolean notModified( Request request, String etag ) {
+        return request != null && request.header( IF_NONE_MATCH ).map( header -> matches( header, etag ) ).orElse( false );
+    }
+
+    static boolean matches( String header, String etag ) {
+        for( String candidate : header.split( "," ) ) {
+            String tag = candidate.trim();
+            if( tag.equals( "*" ) ) return true;
+            if( tag.startsWith( "W/" ) ) tag = tag.substring( 2 );
+            if( tag.equals( etag ) ) return true;
+        }
+        return false;
+    }
+
+    static HttpResponse notModified( String etag ) {
+        return HttpResponse.status( HTTP_NOT_MODIFIED ).withHeader( ETAG, etag );
+    }
+
+    static HttpResponse ok( Object content, String etag ) {
+        return HttpResponse.ok( content ).withHeader( ETAG, etag );
+    }
+
+    static HttpResponse stream( Stream<?> content, String etag ) {
+        return HttpResponse.stream( content, APPLICATION_JSON ).withHeader( ETAG, etag );
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.http.HttpResponse;
+import oap.ws.WsClientException;
+
+import java.util.Collections;
+
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+
+/**
+ * Thrown when the password hashing pool is saturated; answered with 503 and {@code Retry-After}, see {@link #response()}.
+ */
+public class HashingOverloadedException extends WsClientException {
+    static final String RETRY_AFTER = "Retry-After";
+    private static final long serialVersionUID = -1766226389637154712L;
+
+    /**
+     * seconds the client should wait before retrying
+     */
+    public final int retryAfter;
+
+    public HashingOverloadedException( int retryAfter ) {
+        super( "Password hashing is overloaded, retry after " + retryAfter + "s", HTTP_UNAVAILABLE, Collections.emptyList() );
+
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * oap-ws renders client exceptions as a status code only, so hashing endpoints answer with this response.
+     */
+    public HttpResponse response() {
+        return HttpResponse.status( HTTP_UNAVAILABLE, getMessage() ).withHeader( RETRY_AFTER, String.valueOf( retryAfter ) );
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * {@link ShardedTokenStore} made durable with a {@link SessionJournal}, so a restart does not log everybody out.
+ * <p>
+ * Token creation and revocation are appended to the journal. On start the live set is rebuilt by replaying
+ * the segments younger than the expiration time, tokens are restored with the access time of their latest record.
+ * In the background the journal is forced to disk every {@code fsync} ms and compacted into a snapshot of the
+ * live tokens, carrying their current access time, once there are more than {@code maxSegments} segments,
+ * every half expiration time and on {@link #stop()}.
+ * <p>
+ * Accesses are not journaled one by one: the periodic snapshot records them, so a session kept alive past
+ * the expiration time since its creation survives a restart, with the access time of the latest snapshot.
+ */
+@Slf4j
+public class JournaledTokenStore implements TokenStore {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final Role[] ROLES = Role.values();
+
+    private final ShardedTokenStore tokens;
+    private final SessionJournal journal;
+    private final long fsync;
+    private final int maxSegments;
+    private volatile long lastSnapshot;
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread thread = new Thread( r, "token-journal" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    /**
+     * @param segmentSize bytes
+     * @param fsync       ms
+     */
+    public JournaledTokenStore( ShardedTokenStore tokens, Path path, long segmentSize, long fsync, int maxSegments ) {
+        this.tokens = tokens;
+        this.journal = new SessionJournal( path, segmentSize );
+        this.fsync = fsync;
+        this.maxSegments = maxSegments;
+
+        replay();
+        this.lastSnapshot = DateTimeUtils.currentTimeMillis();
+    }
+
+    public void start() {
+        background.scheduleWithFixedDelay( this::maintain, fsync, fsync, MILLISECONDS );
+    }
+
+    public void stop() {
+        background.shutdownNow();
+        try {
+            compact();
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Override
+    public void put( Token token ) {
+        final long now = DateTimeUtils.currentTimeMillis();
+
+        tokens.put( token, now );
+        journal.append( PUT, encode( token, now ) );
+    }
+
+    @Override
+    public Optional<Token> get( String id ) {
+        return tokens.get( id );
+    }
+
+    @Override
+    public void remove( String id ) {
+        tokens.remove( id );
+        journal.append( REMOVE, id.getBytes( UTF_8 ) );
+    }
+
+    @Override
+    public List<String> removeByUser( String email ) {
+        final List<String> removed = tokens.removeByUser( email );
+        for( String id : removed ) journal.append( REMOVE, id.getBytes( UTF_8 ) );
+        return removed;
+    }
+
+    @Override
+    public long size() {
+        return tokens.size();
+    }
+
+    /**
+     * Rewrites the journal as a snapshot of the live tokens and their access times.
+     */
+    public synchronized void compact() {
+        lastSnapshot = DateTimeUtils.currentTimeMillis();
+        final long sequence = journal.roll();
+
+        final List<byte[]> live = new ArrayList<>();
+        tokens.forEach( ( token, lastAccess ) -> live.add( encode( token, lastAccess ) ) );
+        journal.snapshot( sequence, live, PUT );
+
+        log.debug( "journal compacted, {} live tokens", live.size() );
+    }
+
+    private void maintain() {
+        try {
+            journal.force();
+            if( journal.segments() > maxSegments
+                || DateTimeUtils.currentTimeMillis() - lastSnapshot >= tokens.expiration() / 2 ) compact();
+        } catch( Exception e ) {
+            log.error( "token journal maintenance failed", e );
+        }
+    }
+
+    private void replay() {
+        final long start = System.currentTimeMillis();
+        final long now = DateTimeUtils.currentTimeMillis();
+        final long expiration = tokens.expiration();
+        final Map<String, Restored> live = new LinkedHashMap<>();
+
+        journal.replay( now - expiration, ( type, payload ) -> {
+            if( type == PUT ) {
+                final Restored restored = decode( payload );
+                live.put( restored.token.id, restored );
+            } else if( type == REMOVE ) live.remove( UTF_8.decode( payload ).toString() );
+        } );
+
+        int restored = 0;
+        for( Restored r : live.values() )
+            if( now - r.lastAccess <= expiration ) {
+                tokens.put( r.token, r.lastAccess );
+                restored++;
+            }
+
+        log.info( "{} tokens restored from the journal in {} ms", restored, System.currentTimeMillis() - start );
+    }
+
+    private static byte[] encode( Token token, long lastAccess ) {
+        final User user = token.user;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+        try( DataOutputStream out = new DataOutputStream( bytes ) ) {
+            writeString( out, token.id );
+            out.writeLong( token.created != null ? token.created.getMillis() : lastAccess );
+            out.writeLong( lastAccess );
+            out.writeByte( user.getRole().ordinal() );
+            writeString( out, user.getEmail() );
+            writeString( out, user.getOrganization() );
+            writeString( out, user instanceof DefaultUser ? ( ( DefaultUser ) user ).organizationName : null );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Restored decode( ByteBuffer payload ) {
+        final Token token = new Token();
+        token.id = readString( payload );
+        token.created = new DateTime( payload.getLong() );
+        final long lastAccess = payload.getLong();
+
+        final Role role = ROLES[payload.get()];
+        final String email = readString( payload );
+        final String organization = readString( payload );
+        final DefaultUser user = new DefaultUser( role, organization.isEmpty() ? null : organization, email );
+        user.organizationName = readString( payload );
+        token.user = user;
+
+        return new Restored( token, lastAccess );
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        final byte[] bytes = value != null ? value.getBytes( UTF_8 ) : new byte[0];
+        out.writeShort( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( ByteBuffer buffer ) {
+        final int length = buffer.getShort() & 0xFFFF;
+        final byte[] bytes = new byte[length];
+        buffer.get( bytes );
+        return new String( bytes, UTF_8 );
+    }
+
+    private static final class Restored {
+        final Token token;
+        final long lastAccess;
+
+        Restored( Token token, long lastAccess ) {
+            this.token = token;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
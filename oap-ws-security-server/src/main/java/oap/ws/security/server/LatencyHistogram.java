@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (HDR style): every power of two is split into
+ * {@value #SUB_BUCKETS} linear buckets, so a recorded value is off by at most 1/{@value #SUB_BUCKETS}.
+ * <p>
+ * {@link #record(long)} is a few atomic increments and never allocates; percentiles are computed
+ * only when a {@link #snapshot()} is taken.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = ( Long.SIZE - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos latency, ns
+     */
+    public void record( long nanos ) {
+        if( nanos < 0 ) nanos = 0;
+
+        counts.incrementAndGet( index( nanos ) );
+        total.add( nanos );
+
+        long current = max.get();
+        while( nanos > current && !max.compareAndSet( current, nanos ) ) current = max.get();
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} at the beginning of the measured operation
+     */
+    public void recordSince( long start ) {
+        record( System.nanoTime() - start );
+    }
+
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        long count = 0;
+        for( int i = 0; i < BUCKETS; i++ ) count += copy[i] = counts.get( i );
+
+        final Snapshot snapshot = new Snapshot();
+        snapshot.count = count;
+        if( count == 0 ) return snapshot;
+
+        final long max = this.max.get();
+        snapshot.mean = micros( total.sum() / ( double ) count );
+        snapshot.p50 = micros( Math.min( valueAt( copy, count, 0.5 ), max ) );
+        snapshot.p90 = micros( Math.min( valueAt( copy, count, 0.9 ), max ) );
+        snapshot.p99 = micros( Math.min( valueAt( copy, count, 0.99 ), max ) );
+        snapshot.p999 = micros( Math.min( valueAt( copy, count, 0.999 ), max ) );
+        snapshot.max = micros( max );
+        return snapshot;
+    }
+
+    static int index( long value ) {
+        if( value < SUB_BUCKETS ) return ( int ) value;
+
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+        return ( shift + 1 ) * SUB_BUCKETS + ( int ) ( value >>> shift ) - SUB_BUCKETS;
+    }
+
+    /**
+     * highest value of the bucket
+     */
+    static long highestValue( int index ) {
+        if( index < SUB_BUCKETS ) return index;
+
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = ( long ) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+        return lowest + ( 1L << shift ) - 1;
+    }
+
+    private static long valueAt( long[] counts, long count, double quantile ) {
+        final long rank = Math.max( 1, ( long ) Math.ceil( quantile * count ) );
+
+        long seen = 0;
+        for( int i = 0; i < counts.length; i++ ) {
+            seen += counts[i];
+            if( seen >= rank ) return highestValue( i );
+        }
+        return highestValue( counts.length - 1 );
+    }
+
+    private static double micros( double nanos ) {
+        return Math.round( nanos / TimeUnit.MICROSECONDS.toNanos( 1 ) * 10 ) / 10.0;
+    }
+
+    /**
+     * Latencies in microseconds.
+     */
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 6218730417735208395L;
+
+        public long count;
+        public double mean;
+        public double p50;
+        public double p90;
+        public double p99;
+        public double p999;
+        public double max;
+    }
+}
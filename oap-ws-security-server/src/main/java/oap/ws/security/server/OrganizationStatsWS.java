@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import oap.util.Stream;
+import oap.ws.WsMethod;
+import oap.ws.security.WsSecurity;
+
+import static oap.http.Request.HttpMethod.GET;
+import static oap.ws.security.Role.ADMIN;
+
+/**
+ * User counts and role breakdowns of all organizations, for billing and the admin UI.
+ * <p>
+ * The counters are maintained by {@link UserStorage}, so a response costs a lookup per organization
+ * rather than a scan of its users. Statistics of one organization are served by
+ * {@link OrganizationWS#stats}; this is a separate service because {@code /organizations/stats}
+ * would be taken for an organization id.
+ */
+public class OrganizationStatsWS {
+    private final UserStorage userStorage;
+    private final OrganizationStorage organizationStorage;
+
+    public OrganizationStatsWS( UserStorage userStorage, OrganizationStorage organizationStorage ) {
+        this.userStorage = userStorage;
+        this.organizationStorage = organizationStorage;
+    }
+
+    @WsMethod( method = GET, path = "/" )
+    @WsSecurity( role = ADMIN )
+    public Stream<OrganizationStats> stats() {
+        final long start = System.nanoTime();
+        if( !userStorage.ready() ) throw new StorageNotReadyException( "users" );
+        if( !organizationStorage.ready() ) throw new StorageNotReadyException( "organizations" );
+
+        final Stream<OrganizationStats> stats = organizationStorage.select()
+            .map( organization -> userStorage.organizationStats( organization.id ) );
+        SecurityMetrics.WS_STATS_ALL.recordSince( start );
+        return stats;
+    }
+}
@@ -25,12 +25,243 @@
 package oap.ws.security.server;
 
 import oap.storage.FileStorage;
+import oap.util.Stream;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 public class OrganizationStorage extends FileStorage<Organization> {
+    /**
+     * sorted organization ids, used for cursor and snapshot paging
+     */
+    private final ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<>();
+    private final ChangeLog<Organization> changeLog = new ChangeLog<>( UserStorage.CHANGE_LOG_CAPACITY );
+    /**
+     * incremented by every mutation
+     */
+    private volatile long version;
+    /**
+     * organization id -> {@link #version} of its last change, absent for organizations unchanged since startup.
+     * Deleted organizations keep their entry until {@link #clear()}.
+     */
+    private final ConcurrentHashMap<String, Long> organizationVersions = new ConcurrentHashMap<>();
+    /**
+     * {@link #version} of the last {@link #clear()}
+     */
+    private volatile long clearVersion;
+
+    /**
+     * binary persistence, null in {@link StorageFormat#JSON} mode
+     */
+    private final StorageJournal<Organization> journal;
+    /**
+     * background loading in lazy binary mode, null otherwise
+     */
+    private final StorageLoader<Organization> loader;
 
     public OrganizationStorage( Path path ) {
+        this( path, StorageFormat.JSON, 0, 0 );
+    }
+
+    public OrganizationStorage( Path path, StorageFormat format, long fsync, int maxSegments ) {
+        this( path, format, fsync, maxSegments, false );
+    }
+
+    public OrganizationStorage( Path path, StorageFormat format, long fsync, int maxSegments, boolean lazy ) {
+        this( path, format, fsync, maxSegments, lazy, 0, 0 );
+    }
+
+    /**
+     * In {@link StorageFormat#BINARY} mode the organizations are persisted to {@code <path>.bin} instead of
+     * {@code path}, loaded in the background with {@code lazy} and written behind with {@code writeBehind},
+     * see {@link UserStorage#UserStorage(Path, StorageFormat, long, int, boolean, long, int)}.
+     *
+     * @param fsync       ms, binary mode only
+     * @param lazy        binary mode only
+     * @param writeBehind ms, binary mode only
+     */
+    public OrganizationStorage( Path path, StorageFormat format, long fsync, int maxSegments, boolean lazy,
+                                long writeBehind, int flushBatch ) {
         super( path, organization -> organization.id );
+        if( format == StorageFormat.PARTITIONED )
+            throw new IllegalArgumentException( "organizations cannot be partitioned" );
+
+        StorageLoader<Organization> loader = null;
+        if( format == StorageFormat.BINARY ) {
+            final Path binaryPath = StorageJournal.binaryPath( path );
+            final boolean migrateJson = !StorageJournal.exists( binaryPath );
+            journal = new StorageJournal<>( binaryPath, "storage.organizations", StorageCodecs.ORGANIZATION,
+                organization -> organization.id, this, () -> ready() ? select().toList() : null, fsync, maxSegments,
+                writeBehind, flushBatch );
+
+            if( migrateJson ) {
+                journal.compact( select().toList() );
+                StorageJournal.retire( path );
+            } else if( lazy )
+                loader = new StorageLoader<>( "organization-storage", journal, journal.scan(), Comparator.naturalOrder(), this, this::restore );
+            else super.store( journal.load() );
+        } else journal = null;
+        this.loader = loader;
+
+        select().forEach( organization -> ids.add( organization.id ) );
+
+        if( loader != null ) loader.start();
+    }
+
+    /**
+     * @return false while a lazy storage is still loading and {@link #select()} may miss organizations
+     */
+    public boolean ready() {
+        return loader == null || loader.ready();
+    }
+
+    /**
+     * @return true if the background loading of a lazy storage failed, it will not become {@link #ready()}
+     */
+    public boolean failed() {
+        return loader != null && loader.failed();
+    }
+
+    /**
+     * Organizations ordered by id, starting after {@code cursor}.
+     * The result is lazy so it can be streamed without materializing the collection.
+     */
+    public Stream<Organization> select( Optional<String> cursor, Optional<Integer> limit ) {
+        return Stream.of( Cursors.page( ids, cursor, limit ) )
+            .map( super::get )
+            .filter( Optional::isPresent )
+            .map( Optional::get );
+    }
+
+    /**
+     * Changes after {@code sequence} of the change log {@code epoch}, or a page of a snapshot.
+     *
+     * @param after {@link ChangeBatch#after} of the previous snapshot page
+     */
+    public ChangeBatch<Organization> changes( String epoch, long sequence, String after, int limit ) {
+        return changeLog.since( epoch, sequence, after, limit, ids, super::get );
+    }
+
+    /**
+     * @param listener called after every logged change
+     */
+    public void onChange( Runnable listener ) {
+        changeLog.addListener( listener );
+    }
+
+    /**
+     * epoch of the change log, versions of different epochs are unrelated
+     */
+    public String epoch() {
+        return changeLog.epoch;
+    }
+
+    /**
+     * @return version of the last change to any organization
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return storage version of the last change to the organization
+     */
+    public long organizationVersion( String id ) {
+        return organizationVersions.getOrDefault( id, clearVersion );
+    }
+
+    @Override
+    public Optional<Organization> get( String id ) {
+        final long start = System.nanoTime();
+        try {
+            final Optional<Organization> organization = super.get( id );
+            if( organization.isPresent() || loader == null || loader.ready() ) return organization;
+
+            return Optional.ofNullable( loadPending( id ) );
+        } finally {
+            SecurityMetrics.ORGANIZATIONS_GET.recordSince( start );
+        }
+    }
+
+    @Override
+    public synchronized void store( Organization organization ) {
+        final long start = System.nanoTime();
+        loadPending( organization.id );
+
+        super.store( organization );
+        organizationVersions.put( organization.id, ++version );
+
+        ids.add( organization.id );
+        changeLog.append( Change.Type.STORE, organization.id, organization );
+        if( journal != null ) journal.store( organization );
+
+        SecurityMetrics.ORGANIZATIONS_STORE.recordSince( start );
+    }
+
+    @Override
+    public synchronized void delete( String id ) {
+        final long start = System.nanoTime();
+        loadPending( id );
+
+        super.delete( id );
+        organizationVersions.put( id, ++version );
+
+        ids.remove( id );
+        changeLog.append( Change.Type.DELETE, id, null );
+        if( journal != null ) journal.delete( id );
+
+        SecurityMetrics.ORGANIZATIONS_DELETE.recordSince( start );
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        organizationVersions.clear();
+        clearVersion = ++version;
+
+        ids.clear();
+        if( loader != null ) loader.clear();
+        if( journal != null ) journal.compact( Collections.emptyList() );
+    }
+
+    /**
+     * Durability barrier, see {@link UserStorage#sync()}.
+     */
+    public void sync() {
+        if( journal != null ) journal.sync();
+        else fsync();
+    }
+
+    /**
+     * In binary mode the {@link StorageJournal} is the persistence, the JSON directory is not written.
+     */
+    @Override
+    public synchronized void fsync() {
+        if( journal == null ) super.fsync();
+    }
+
+    @Override
+    public synchronized void close() {
+        if( loader != null ) loader.stop();
+        super.close();
+
+        if( journal != null ) journal.close();
+    }
+
+    private synchronized Organization loadPending( String id ) {
+        return loader != null ? loader.load( id ) : null;
+    }
+
+    /**
+     * an organization decoded by the {@link StorageLoader}
+     */
+    private void restore( Organization organization ) {
+        super.store( organization );
+
+        ids.add( organization.id );
     }
 }
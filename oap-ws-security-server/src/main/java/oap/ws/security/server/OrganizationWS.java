@@ -25,7 +25,11 @@
 package oap.ws.security.server;
 
 import lombok.extern.slf4j.Slf4j;
+import oap.http.HttpResponse;
+import oap.http.Request;
 import oap.json.Binder;
+import oap.util.Stream;
+import oap.ws.WsClientException;
 import oap.ws.WsMethod;
 import oap.ws.WsParam;
 import oap.ws.security.DefaultUser;
@@ -37,106 +41,307 @@ import oap.ws.security.WsSecurity;
 import oap.ws.validate.ValidationErrors;
 import oap.ws.validate.WsValidate;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.util.stream.Collectors.toList;
 import static oap.http.Request.HttpMethod.DELETE;
 import static oap.http.Request.HttpMethod.GET;
 import static oap.http.Request.HttpMethod.POST;
 import static oap.ws.WsParam.From.BODY;
 import static oap.ws.WsParam.From.PATH;
+import static oap.ws.WsParam.From.QUERY;
+import static oap.ws.WsParam.From.REQUEST;
 import static oap.ws.WsParam.From.SESSION;
 import static oap.ws.security.Role.ADMIN;
 
 @Slf4j
 public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
 
+    static final int DEFAULT_SEARCH_LIMIT = 20;
+    static final int MAX_SEARCH_LIMIT = 100;
+
     private final OrganizationStorage organizationStorage;
     private final UserStorage userStorage;
     private final PasswordHasher passwordHasher;
+    private final AuditLog auditLog;
+    private final ApiKeyStorage apiKeyStorage;
+    private final ServerAuthService authService;
 
     public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage, PasswordHasher passwordHasher ) {
+        this( organizationStorage, userStorage, passwordHasher, AuditLog.disabled(), null );
+    }
+
+    /**
+     * @param auditLog      receives organization, user and API key changes
+     * @param apiKeyStorage null disables the API key endpoints
+     */
+    public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage, PasswordHasher passwordHasher,
+                           AuditLog auditLog, ApiKeyStorage apiKeyStorage ) {
+        this( organizationStorage, userStorage, passwordHasher, auditLog, apiKeyStorage, null );
+    }
+
+    /**
+     * @param authService revokes the sessions of the users of deleted organizations, null if none
+     */
+    public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage, PasswordHasher passwordHasher,
+                           AuditLog auditLog, ApiKeyStorage apiKeyStorage, ServerAuthService authService ) {
         this.organizationStorage = organizationStorage;
         this.userStorage = userStorage;
         this.passwordHasher = passwordHasher;
+        this.auditLog = auditLog;
+        this.apiKeyStorage = apiKeyStorage;
+        this.authService = authService;
     }
 
     @WsMethod( method = POST, path = "/store" )
     @WsSecurity( role = ADMIN )
     @Override
-    public Organization store( @WsParam( from = BODY ) Organization organization ) {
+    public Organization store( @WsParam( from = BODY ) Organization organization,
+                               @WsParam( from = QUERY ) Optional<Boolean> durable,
+                               @WsParam( from = SESSION ) DefaultUser user ) {
+        final long start = System.nanoTime();
         log.debug( "Storing organization: [{}]", organization );
 
         organizationStorage.store( organization );
+        if( durable.orElse( false ) ) organizationStorage.sync();
+        auditLog.publish( AuditEvent.Type.ORGANIZATION_STORE, actor( user ), organization.id, organization.id );
 
+        SecurityMetrics.WS_STORE.recordSince( start );
         return organization;
     }
 
     @WsMethod( method = GET, path = "/" )
     @WsSecurity( role = ADMIN )
+    @WsValidate( { "validateLimit" } )
     @Override
-    public List<Organization> list() {
-        log.debug( "Fetching all organizations" );
+    public HttpResponse list( @WsParam( from = QUERY ) Optional<String> cursor,
+                              @WsParam( from = QUERY ) Optional<Integer> limit,
+                              @WsParam( from = REQUEST ) Request request ) {
+        final long start = System.nanoTime();
+        log.debug( "Fetching organizations after [{}], limit [{}]", cursor, limit );
+        if( !organizationStorage.ready() ) throw new StorageNotReadyException( "organizations" );
 
-        return organizationStorage.select().toList();
+        final String etag = ETags.etag( organizationStorage.epoch(), organizationStorage.version() );
+        if( ETags.notModified( request, etag ) ) {
+            SecurityMetrics.WS_LIST.recordSince( start );
+            return ETags.notModified( etag );
+        }
+
+        return ETags.stream( SecurityMetrics.timed( SecurityMetrics.WS_LIST, start,
+            organizationStorage.select( cursor, limit ) ), etag );
     }
 
     @WsMethod( method = GET, path = "/{organizationId}" )
     @WsSecurity( role = Role.USER )
     @WsValidate( { "validateOrganizationAccess" } )
     @Override
-    public Optional<Organization> organization( @WsParam( from = PATH ) String organizationId,
-                                                @WsParam( from = SESSION ) DefaultUser user ) {
-        return organizationStorage.get( organizationId );
+    public HttpResponse organization( @WsParam( from = PATH ) String organizationId,
+                                      @WsParam( from = SESSION ) DefaultUser user,
+                                      @WsParam( from = REQUEST ) Request request ) {
+        final long start = System.nanoTime();
+        try {
+            final String etag = ETags.etag( organizationStorage.epoch(), organizationStorage.organizationVersion( organizationId ) );
+            final Optional<Organization> organization = organizationStorage.get( organizationId );
+
+            if( !organization.isPresent() ) return HttpResponse.status( HTTP_NOT_FOUND );
+            if( ETags.notModified( request, etag ) ) return ETags.notModified( etag );
+            return ETags.ok( organization.get(), etag );
+        } finally {
+            SecurityMetrics.WS_ORGANIZATION.recordSince( start );
+        }
     }
 
     @WsMethod( method = DELETE, path = "/{organizationId}" )
     @WsSecurity( role = ADMIN )
-    public void delete( @WsParam( from = PATH ) String organizationId ) {
+    @Override
+    public void delete( @WsParam( from = PATH ) String organizationId,
+                        @WsParam( from = SESSION ) DefaultUser user ) {
+        final long start = System.nanoTime();
+
         organizationStorage.delete( organizationId );
+        if( apiKeyStorage != null ) apiKeyStorage.revokeByOrganization( organizationId );
+        if( authService != null ) authService.revokeOrganization( organizationId );
+        auditLog.publish( AuditEvent.Type.ORGANIZATION_DELETE, actor( user ), organizationId, organizationId );
 
         log.debug( "Organization [{}] deleted", organizationId );
+        SecurityMetrics.WS_DELETE.recordSince( start );
     }
 
     @WsMethod( method = GET, path = "/{organizationId}/users" )
     @WsSecurity( role = ADMIN )
+    @WsValidate( { "validateLimit" } )
+    @Override
+    public HttpResponse users( @WsParam( from = PATH ) String organizationId,
+                               @WsParam( from = QUERY ) Optional<String> cursor,
+                               @WsParam( from = QUERY ) Optional<Integer> limit,
+                               @WsParam( from = REQUEST ) Request request ) {
+        final long start = System.nanoTime();
+        log.debug( "Fetching users for organization [{}] after [{}], limit [{}]", organizationId, cursor, limit );
+        if( !userStorage.ready() ) throw new StorageNotReadyException( "users" );
+
+        final String etag = ETags.etag( userStorage.epoch(), userStorage.organizationVersion( organizationId ) );
+        if( ETags.notModified( request, etag ) ) {
+            SecurityMetrics.WS_USERS.recordSince( start );
+            return ETags.notModified( etag );
+        }
+
+        return ETags.stream( SecurityMetrics.timed( SecurityMetrics.WS_USERS, start,
+            userStorage.selectByOrganization( organizationId, cursor, limit ).map( Converters::toUserDTO ) ), etag );
+    }
+
+    @WsMethod( method = GET, path = "/{organizationId}/stats" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess" } )
     @Override
-    public List<? extends User> users( @WsParam( from = PATH ) String organizationId ) {
-        log.debug( "Fetching all users for organization [{}]", organizationId );
+    public Optional<OrganizationStats> stats( @WsParam( from = PATH ) String organizationId,
+                                              @WsParam( from = SESSION ) DefaultUser user ) {
+        final long start = System.nanoTime();
+        if( !userStorage.ready() ) throw new StorageNotReadyException( "users" );
 
-        return userStorage.select()
-            .filter( user -> user.organizationId.equals( organizationId ) )
-            .map( Converters::toUserDTO )
-            .toList();
+        try {
+            return organizationStorage.get( organizationId ).map( o -> userStorage.organizationStats( organizationId ) );
+        } finally {
+            SecurityMetrics.WS_STATS.recordSince( start );
+        }
     }
 
     @WsMethod( method = POST, path = "/{organizationId}/users/store" )
     @WsSecurity( role = Role.USER )
     @WsValidate( { "validateOrganizationAccess", "validateUserAccess", "validateUserPrecedence", "validateUserCreationRole" } )
     @Override
-    public User userStore( @WsParam( from = BODY ) DefaultUser storeUser, @WsParam( from = PATH ) String organizationId,
-                           @WsParam( from = SESSION ) DefaultUser user ) {
+    public HttpResponse userStore( @WsParam( from = BODY ) DefaultUser storeUser, @WsParam( from = PATH ) String organizationId,
+                                   @WsParam( from = SESSION ) DefaultUser user, @WsParam( from = QUERY ) Optional<Boolean> durable ) {
+        try {
+            return HttpResponse.ok( storeUser( storeUser, organizationId, user, durable ) );
+        } catch( HashingOverloadedException e ) {
+            return e.response();
+        }
+    }
+
+    User storeUser( DefaultUser storeUser, String organizationId, DefaultUser user, Optional<Boolean> durable ) {
+        final long start = System.nanoTime();
 
         final DefaultUser newUser = Binder.json.clone( storeUser );
+        final long cloned = System.nanoTime();
+        SecurityMetrics.WS_USER_STORE_CLONE.record( cloned - start );
+
         newUser.password = passwordHasher.hashPassword( storeUser.password );
-        newUser.email = storeUser.email.toLowerCase();
+        SecurityMetrics.WS_USER_STORE_HASH.recordSince( cloned );
 
         userStorage.store( newUser );
+        if( durable.orElse( false ) ) userStorage.sync();
+        auditLog.publish( AuditEvent.Type.USER_STORE, actor( user ), organizationId, newUser.email );
+        RequestLookups.current().clear();
 
-        log.debug( "New information about user " + newUser.email + " was successfully added" );
+        log.debug( "User [{}] stored", newUser.email );
 
-        return Converters.toUserDTO( storeUser );
+        final DefaultUser result = Converters.toUserDTO( storeUser );
+        SecurityMetrics.WS_USER_STORE.recordSince( start );
+        return result;
+    }
+
+    @WsMethod( method = POST, path = "/{organizationId}/users/bulk" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess" } )
+    @Override
+    public HttpResponse usersBulk( @WsParam( from = BODY ) byte[] users, @WsParam( from = PATH ) String organizationId,
+                                   @WsParam( from = SESSION ) DefaultUser user ) {
+        try {
+            return HttpResponse.ok( importUsers( users, organizationId, user ) );
+        } catch( HashingOverloadedException e ) {
+            return e.response();
+        }
+    }
+
+    List<BulkUserResult> importUsers( byte[] users, String organizationId, DefaultUser user ) {
+        final long start = System.nanoTime();
+        final List<DefaultUser> items = BulkUsers.parse( users );
+        final List<BulkUserResult> results = new ArrayList<>( items.size() );
+        final List<DefaultUser> accepted = new ArrayList<>();
+
+        for( int i = 0; i < items.size(); i++ ) {
+            final DefaultUser item = items.get( i );
+            final BulkUserResult result = validateBulkUser( i, item, organizationId, user );
+            results.add( result );
+            if( result.code == HTTP_OK ) accepted.add( item );
+        }
+
+        final List<String> hashes = hashPasswords( accepted.stream().map( u -> u.password ).collect( toList() ) );
+        for( int i = 0; i < accepted.size(); i++ ) accepted.get( i ).password = hashes.get( i );
+
+        userStorage.store( accepted );
+        for( DefaultUser item : accepted )
+            auditLog.publish( AuditEvent.Type.USERS_BULK, actor( user ), organizationId, item.email );
+        RequestLookups.current().clear();
+
+        log.debug( "{} of {} users imported into organization [{}]", accepted.size(), items.size(), organizationId );
+
+        SecurityMetrics.WS_USERS_BULK.recordSince( start );
+        return results;
+    }
+
+    @WsMethod( method = GET, path = "/{organizationId}/user-search" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess", "validatePrefix", "validateLimit" } )
+    @Override
+    public Stream<? extends User> search( @WsParam( from = PATH ) String organizationId,
+                                          @WsParam( from = QUERY ) String prefix,
+                                          @WsParam( from = QUERY ) Optional<Integer> limit,
+                                          @WsParam( from = SESSION ) DefaultUser user ) {
+        final long start = System.nanoTime();
+        log.debug( "Searching users of organization [{}] by [{}], limit [{}]", organizationId, prefix, limit );
+
+        return SecurityMetrics.timed( SecurityMetrics.WS_SEARCH, start, userStorage
+            .searchByOrganization( organizationId, prefix, Math.min( limit.orElse( DEFAULT_SEARCH_LIMIT ), MAX_SEARCH_LIMIT ) )
+            .map( Converters::toUserDTO ) );
     }
 
     @WsMethod( method = GET, path = "/{organizationId}/users/{email}" )
     @WsSecurity( role = Role.USER )
     @WsValidate( { "validateOrganizationAccess", "validateUserAccessById" } )
     @Override
-    public Optional<User> user( @WsParam( from = PATH ) String organizationId,
-                                @WsParam( from = PATH ) String email,
-                                @WsParam( from = SESSION ) User user ) {
-        return userStorage.get( email.toLowerCase() ).map( Converters::toUserDTO );
+    public HttpResponse user( @WsParam( from = PATH ) String organizationId,
+                              @WsParam( from = PATH ) String email,
+                              @WsParam( from = SESSION ) User user,
+                              @WsParam( from = REQUEST ) Request request ) {
+        final long start = System.nanoTime();
+        try {
+            // the version is read first: the memoized user is reloaded if the storage changed since validation
+            final String etag = ETags.etag( userStorage.epoch(), userStorage.userVersion( email ) );
+            final Optional<User> found = findUser( email );
+
+            if( !found.isPresent() ) return HttpResponse.status( HTTP_NOT_FOUND );
+            if( ETags.notModified( request, etag ) ) return ETags.notModified( etag );
+            return ETags.ok( found.get(), etag );
+        } finally {
+            SecurityMetrics.WS_USER.recordSince( start );
+        }
+    }
+
+    /**
+     * The user of {@link #user}, resolved through the lookup memo of the request.
+     */
+    Optional<User> findUser( String email ) {
+        return memoizedUser( email ).map( Converters::toUserDTO );
+    }
+
+    /**
+     * The user already resolved by the validation chain of the request, then the memo is released.
+     */
+    private Optional<DefaultUser> memoizedUser( String email ) {
+        final RequestLookups lookups = RequestLookups.current();
+        try {
+            return lookups.user( userStorage, email );
+        } finally {
+            lookups.clear();
+        }
     }
 
     @WsMethod( method = DELETE, path = "/{organizationId}/users/{email}/delete" )
@@ -145,9 +350,95 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
     @Override
     public void userDelete( @WsParam( from = PATH ) String organizationId, @WsParam( from = PATH ) String email,
                             @WsParam( from = SESSION ) User user ) {
-        userStorage.delete( email.toLowerCase() );
+        final long start = System.nanoTime();
+        final Optional<DefaultUser> found = memoizedUser( email );
+
+        if( found.isPresent() ) {
+            final String canonical = found.get().email;
+            userStorage.delete( canonical );
+            auditLog.publish( AuditEvent.Type.USER_DELETE, actor( user ), organizationId, canonical );
+
+            log.debug( "User [{}] deleted", canonical );
+        }
+        SecurityMetrics.WS_USER_DELETE.recordSince( start );
+    }
+
+    /**
+     * Creates a key authenticating as {@code apiKey.role} of the organization, at most the role of the caller.
+     *
+     * @return the key; it is not stored and cannot be shown again
+     */
+    @WsMethod( method = POST, path = "/{organizationId}/api-keys/create" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess", "validateApiKeyRole" } )
+    @Override
+    public ApiKey apiKeyCreate( @WsParam( from = BODY ) ApiKey apiKey, @WsParam( from = PATH ) String organizationId,
+                                @WsParam( from = SESSION ) DefaultUser user ) {
+        final ApiKey created = apiKeys().create( organizationId, apiKey.role, apiKey.name, user.getEmail() );
+        auditLog.publish( AuditEvent.Type.API_KEY_CREATE, actor( user ), organizationId, created.id );
+
+        log.debug( "API key [{}] created for organization [{}]", created.id, organizationId );
+        return created;
+    }
+
+    @WsMethod( method = GET, path = "/{organizationId}/api-keys" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess" } )
+    @Override
+    public Stream<ApiKey> apiKeys( @WsParam( from = PATH ) String organizationId,
+                                   @WsParam( from = SESSION ) DefaultUser user ) {
+        return apiKeys().selectByOrganization( organizationId );
+    }
+
+    @WsMethod( method = DELETE, path = "/{organizationId}/api-keys/{keyId}" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess" } )
+    @Override
+    public void apiKeyRevoke( @WsParam( from = PATH ) String organizationId, @WsParam( from = PATH ) String keyId,
+                              @WsParam( from = SESSION ) DefaultUser user ) {
+        if( apiKeys().revoke( organizationId, keyId ) ) {
+            auditLog.publish( AuditEvent.Type.API_KEY_REVOKE, actor( user ), organizationId, keyId );
+            log.debug( "API key [{}] of organization [{}] revoked", keyId, organizationId );
+        }
+    }
 
-        log.debug( "User [{}] deleted", email );
+    private ApiKeyStorage apiKeys() {
+        if( apiKeyStorage == null )
+            throw new WsClientException( "API keys are not enabled", HTTP_NOT_FOUND, Collections.emptyList() );
+        return apiKeyStorage;
+    }
+
+    /**
+     * Applies the userStore validation chain to one user of a bulk import.
+     * Organization access of the caller is validated once for the whole batch.
+     */
+    private BulkUserResult validateBulkUser( int index, DefaultUser item, String organizationId, DefaultUser user ) {
+        if( item == null ) return new BulkUserResult( index, null, HTTP_BAD_REQUEST, "malformed user" );
+        if( item.email == null || item.password == null || item.role == null )
+            return new BulkUserResult( index, item.email, HTTP_BAD_REQUEST, "email, password and role are required" );
+
+        if( item.organizationId == null ) item.organizationId = organizationId;
+
+        if( !organizationId.equals( item.organizationId )
+            || validateUserAccessById( organizationId, item.email ).isFailed()
+            || validateUserPrecedence( user, item ).isFailed()
+            || validateUserCreationRole( user, item ).isFailed() )
+            return new BulkUserResult( index, item.email, HTTP_FORBIDDEN, "Forbidden" );
+
+        return new BulkUserResult( index, item.email, HTTP_OK, "OK" );
+    }
+
+    /**
+     * email of the session user for the audit log, null when the service is called without a session
+     */
+    private static String actor( User user ) {
+        return user != null ? user.getEmail() : null;
+    }
+
+    private List<String> hashPasswords( List<String> passwords ) {
+        return passwordHasher instanceof BoundedPasswordHasher
+            ? ( ( BoundedPasswordHasher ) passwordHasher ).hashPasswords( passwords )
+            : passwords.parallelStream().map( passwordHasher::hashPassword ).collect( toList() );
     }
 
     @SuppressWarnings( "unused" )
@@ -157,7 +448,30 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
 
     @SuppressWarnings( "unused" )
     public ValidationErrors validateUserAccessById( String organizationId, String email ) {
-        return OrganizationAwareWS.validateObjectAccess( userStorage.get( email.toLowerCase() ), organizationId );
+        final long start = System.nanoTime();
+        try {
+            return OrganizationAwareWS.validateObjectAccess( RequestLookups.current().user( userStorage, email ), organizationId );
+        } finally {
+            SecurityMetrics.WS_VALIDATE.recordSince( start );
+        }
+    }
+
+    @SuppressWarnings( "unused" )
+    public ValidationErrors validateLimit( Optional<Integer> limit ) {
+        return limit.isPresent() && limit.get() < 0
+            ? ValidationErrors.error( HTTP_BAD_REQUEST, "limit must not be negative" ) : ValidationErrors.empty();
+    }
+
+    @SuppressWarnings( "unused" )
+    public ValidationErrors validatePrefix( String prefix ) {
+        return prefix == null || prefix.isEmpty()
+            ? ValidationErrors.error( HTTP_BAD_REQUEST, "prefix is required" ) : ValidationErrors.empty();
+    }
+
+    @SuppressWarnings( "unused" )
+    public ValidationErrors validateApiKeyRole( User user, ApiKey apiKey ) {
+        return ( user.getRole() != Role.ADMIN && apiKey.role != null && apiKey.role.precedence < user.getRole().precedence )
+            ? ValidationErrors.error( HTTP_FORBIDDEN, "Forbidden" ) : ValidationErrors.empty();
     }
 
     @SuppressWarnings( "unused" )
@@ -169,7 +483,7 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
     @SuppressWarnings( "unused" )
     public ValidationErrors validateUserCreationRole( User user, User storeUser ) {
         return
-            ( user.getRole() == Role.USER && !user.getEmail().toLowerCase().equals( storeUser.getEmail().toLowerCase() ) )
+            ( user.getRole() == Role.USER && !user.getEmail().equalsIgnoreCase( storeUser.getEmail() ) )
                 ? ValidationErrors.error( HTTP_FORBIDDEN, "Forbidden" ) : ValidationErrors.empty();
     }
 
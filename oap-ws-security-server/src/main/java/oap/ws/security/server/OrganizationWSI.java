@@ -1,26 +1,40 @@
 package oap.ws.security.server;
 
+import oap.http.HttpResponse;
+import oap.http.Request;
+import oap.util.Stream;
 import oap.ws.security.DefaultUser;
 import oap.ws.security.User;
 
-import java.util.List;
 import java.util.Optional;
 
 interface OrganizationWSI {
 
-    Organization store( Organization organization );
+    Organization store( Organization organization, Optional<Boolean> durable, DefaultUser user );
 
-    List<Organization> list();
+    HttpResponse list( Optional<String> cursor, Optional<Integer> limit, Request request );
 
-    Optional<Organization> organization( String organizationId, DefaultUser user );
+    HttpResponse organization( String organizationId, DefaultUser user, Request request );
 
-    void delete( String organizationId );
+    void delete( String organizationId, DefaultUser user );
 
-    List<? extends User> users( String organizationId );
+    HttpResponse users( String organizationId, Optional<String> cursor, Optional<Integer> limit, Request request );
 
-    User userStore( DefaultUser storeUser, String organizationId, DefaultUser user );
+    Optional<OrganizationStats> stats( String organizationId, DefaultUser user );
 
-    Optional<User> user( String organizatinoId, String email, User user );
+    HttpResponse userStore( DefaultUser storeUser, String organizationId, DefaultUser user, Optional<Boolean> durable );
+
+    HttpResponse usersBulk( byte[] users, String organizationId, DefaultUser user );
+
+    Stream<? extends User> search( String organizationId, String prefix, Optional<Integer> limit, DefaultUser user );
+
+    HttpResponse user( String organizatinoId, String email, User user, Request request );
 
     void userDelete( String organizationId, String email, User user );
+
+    ApiKey apiKeyCreate( ApiKey apiKey, String organizationId, DefaultUser user );
+
+    Stream<ApiKey> apiKeys( String organizationId, DefaultUser user );
+
+    void apiKeyRevoke( String organizationId, String keyId, DefaultUser user );
 }
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.DefaultUser;
+
+import java.util.Optional;
+
+/**
+ * Memo of the user lookups of the request being handled by the current thread.
+ * <p>
+ * An {@link OrganizationWS} request resolves the same user in several validators and then in the handler;
+ * through the memo the email is looked up in the storage once. Entries are bound to the
+ * {@link UserStorage#version()} they were read at, so a memo outliving its request (the handler is not
+ * reached when validation fails) is dropped by the first mutation of the storage and never serves stale data.
+ */
+final class RequestLookups {
+    private static final int SIZE = 4;
+    private static final ThreadLocal<RequestLookups> current = ThreadLocal.withInitial( RequestLookups::new );
+
+    private final String[] keys = new String[SIZE];
+    @SuppressWarnings( "unchecked" )
+    private final Optional<DefaultUser>[] values = new Optional[SIZE];
+    private UserStorage storage;
+    private long version;
+    private int next;
+    /**
+     * storage lookups done by this thread
+     */
+    long lookups;
+
+    static RequestLookups current() {
+        return current.get();
+    }
+
+    Optional<DefaultUser> user( UserStorage storage, String email ) {
+        final long version = storage.version();
+        if( this.storage != storage || this.version != version ) {
+            clear();
+            this.storage = storage;
+            this.version = version;
+        }
+
+        for( int i = 0; i < SIZE; i++ ) {
+            final String key = keys[i];
+            if( key != null && ( key == email || key.equals( email ) ) ) return values[i];
+        }
+
+        lookups++;
+        final Optional<DefaultUser> value = storage.get( email );
+        keys[next] = email;
+        values[next] = value;
+        next = ( next + 1 ) % SIZE;
+
+        return value;
+    }
+
+    /**
+     * Releases the memoized users at the end of the request.
+     */
+    void clear() {
+        for( int i = 0; i < SIZE; i++ ) {
+            keys[i] = null;
+            values[i] = null;
+        }
+        storage = null;
+        next = 0;
+    }
+}
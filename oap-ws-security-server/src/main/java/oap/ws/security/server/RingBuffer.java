@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Every slot carries a sequence telling whose turn it is: a producer claims the next position with one CAS
+ * and publishes its value by advancing the slot sequence; the consumer frees a slot by advancing it by
+ * a lap. {@link #offer} never blocks and never waits for the consumer: on a full ring it fails.
+ */
+final class RingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * consumer position, only touched by the consumer thread
+     */
+    private long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    RingBuffer( int capacity ) {
+        this.capacity = Integer.highestOneBit( Math.max( 1, capacity - 1 ) ) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>( this.capacity );
+        this.sequences = new AtomicLongArray( this.capacity );
+        for( int i = 0; i < this.capacity; i++ ) sequences.set( i, i );
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer( T value ) {
+        long position = tail.get();
+        while( true ) {
+            final int index = ( int ) ( position & mask );
+            final long difference = sequences.get( index ) - position;
+
+            if( difference == 0 ) {
+                if( tail.compareAndSet( position, position + 1 ) ) {
+                    slots.lazySet( index, value );
+                    sequences.lazySet( index, position + 1 );
+                    return true;
+                }
+                position = tail.get();
+            } else if( difference < 0 ) return false;
+            else position = tail.get();
+        }
+    }
+
+    /**
+     * Consumer thread only.
+     *
+     * @return null if empty
+     */
+    T poll() {
+        final int index = ( int ) ( head & mask );
+        if( sequences.get( index ) != head + 1 ) return null;
+
+        final T value = slots.get( index );
+        slots.lazySet( index, null );
+        sequences.lazySet( index, head + capacity );
+        head++;
+        return value;
+    }
+
+    /**
+     * @return approximate number of queued values
+     */
+    int size() {
+        return ( int ) Math.max( 0, Math.min( capacity, tail.get() - head ) );
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.DefaultUser;
+
+import java.io.Serializable;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * One page of the change feed of organizations and users.
+ */
+public class SecurityChanges implements Serializable {
+    private static final long serialVersionUID = 5710452693264071924L;
+
+    /**
+     * opaque position to pass as {@code since} of the next request, also carries the cursor of a paged snapshot
+     */
+    public String next;
+    public ChangeBatch<Organization> organizations;
+    public ChangeBatch<DefaultUser> users;
+
+    public SecurityChanges() {
+    }
+
+    public SecurityChanges( ChangeBatch<Organization> organizations, ChangeBatch<DefaultUser> users ) {
+        this.organizations = organizations;
+        this.users = users;
+        this.next = organizations.epoch + ":" + organizations.lastSequence + ":" + encode( organizations.after ) + ":"
+            + users.epoch + ":" + users.lastSequence + ":" + encode( users.after );
+    }
+
+    /**
+     * @return snapshot cursor of a {@link #next} position, {@code null} if empty and {@code ""} if malformed
+     */
+    static String decode( String after ) {
+        if( after == null || after.isEmpty() ) return null;
+        try {
+            return new String( Base64.getUrlDecoder().decode( after ), UTF_8 );
+        } catch( IllegalArgumentException e ) {
+            // restart the snapshot rather than continue incrementally from its middle
+            return "";
+        }
+    }
+
+    private static String encode( String after ) {
+        return after == null ? "" : Base64.getUrlEncoder().withoutPadding().encodeToString( after.getBytes( UTF_8 ) );
+    }
+
+    public boolean isEmpty() {
+        return isEmpty( organizations ) && isEmpty( users );
+    }
+
+    private static boolean isEmpty( ChangeBatch<?> batch ) {
+        return !batch.snapshot && batch.changes.isEmpty();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.util.Stream;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.StreamSupport;
+
+/**
+ * Latencies of the security server, shared by all instances of the measured services.
+ * <p>
+ * Endpoints returning a lazy stream ({@code list()}, {@code users()}) are measured until the web server has
+ * drained or closed the stream, see {@link #timed(LatencyHistogram, long, Stream)}, so reading and serializing
+ * the records is included.
+ */
+public final class SecurityMetrics {
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public static final LatencyHistogram WS_STORE = histogram( "ws.organizations.store" );
+    public static final LatencyHistogram WS_LIST = histogram( "ws.organizations.list" );
+    public static final LatencyHistogram WS_ORGANIZATION = histogram( "ws.organizations.organization" );
+    public static final LatencyHistogram WS_DELETE = histogram( "ws.organizations.delete" );
+    public static final LatencyHistogram WS_USERS = histogram( "ws.organizations.users" );
+    public static final LatencyHistogram WS_USER = histogram( "ws.organizations.user" );
+    public static final LatencyHistogram WS_SEARCH = histogram( "ws.organizations.search" );
+    public static final LatencyHistogram WS_STATS = histogram( "ws.organizations.stats" );
+    public static final LatencyHistogram WS_STATS_ALL = histogram( "ws.organization-stats.all" );
+    public static final LatencyHistogram WS_USER_STORE = histogram( "ws.organizations.userStore" );
+    public static final LatencyHistogram WS_USER_STORE_CLONE = histogram( "ws.organizations.userStore.clone" );
+    public static final LatencyHistogram WS_USER_STORE_HASH = histogram( "ws.organizations.userStore.hash" );
+    public static final LatencyHistogram WS_USERS_BULK = histogram( "ws.organizations.usersBulk" );
+    public static final LatencyHistogram WS_USER_DELETE = histogram( "ws.organizations.userDelete" );
+    /**
+     * user access validation, the part of the {@code @WsValidate} chains loading the target user
+     */
+    public static final LatencyHistogram WS_VALIDATE = histogram( "ws.organizations.validate" );
+
+    public static final LatencyHistogram USERS_GET = histogram( "storage.users.get" );
+    public static final LatencyHistogram USERS_STORE = histogram( "storage.users.store" );
+    public static final LatencyHistogram USERS_DELETE = histogram( "storage.users.delete" );
+    public static final LatencyHistogram ORGANIZATIONS_GET = histogram( "storage.organizations.get" );
+    public static final LatencyHistogram ORGANIZATIONS_STORE = histogram( "storage.organizations.store" );
+    public static final LatencyHistogram ORGANIZATIONS_DELETE = histogram( "storage.organizations.delete" );
+
+    /**
+     * time a hash waited for a thread of {@link BoundedPasswordHasher}
+     */
+    public static final LatencyHistogram HASH_WAIT = histogram( "hash.wait" );
+    /**
+     * time of one password hash
+     */
+    public static final LatencyHistogram HASH = histogram( "hash.compute" );
+
+    private SecurityMetrics() {
+    }
+
+    public static LatencyHistogram histogram( String name ) {
+        return histograms.computeIfAbsent( name, n -> new LatencyHistogram() );
+    }
+
+    public static LongAdder counter( String name ) {
+        return counters.computeIfAbsent( name, n -> new LongAdder() );
+    }
+
+    /**
+     * Registers a value read when metrics are reported; a later registration under the same name replaces it.
+     */
+    public static void gauge( String name, LongSupplier value ) {
+        gauges.put( name, value );
+    }
+
+    /**
+     * @return counters and gauges by name
+     */
+    public static Map<String, Long> counters() {
+        final TreeMap<String, Long> snapshot = new TreeMap<>();
+        counters.forEach( ( name, counter ) -> snapshot.put( name, counter.sum() ) );
+        gauges.forEach( ( name, gauge ) -> snapshot.put( name, gauge.getAsLong() ) );
+        return snapshot;
+    }
+
+    /**
+     * Records the time from {@code start} to the end of the stream, or to its close if it is not drained,
+     * once.
+     */
+    public static <T> Stream<T> timed( LatencyHistogram histogram, long start, Stream<T> stream ) {
+        final AtomicBoolean recorded = new AtomicBoolean();
+        final Runnable record = () -> {
+            if( recorded.compareAndSet( false, true ) ) histogram.recordSince( start );
+        };
+
+        final Iterator<T> iterator = stream.iterator();
+        final Iterator<T> timed = new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                final boolean hasNext = iterator.hasNext();
+                if( !hasNext ) record.run();
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+
+        return Stream.of( StreamSupport.stream( Spliterators.spliteratorUnknownSize( timed, Spliterator.ORDERED ), false )
+            .onClose( () -> {
+                try {
+                    stream.close();
+                } finally {
+                    record.run();
+                }
+            } ) );
+    }
+
+    public static Map<String, LatencyHistogram.Snapshot> snapshot() {
+        final TreeMap<String, LatencyHistogram.Snapshot> snapshot = new TreeMap<>();
+        histograms.forEach( ( name, histogram ) -> snapshot.put( name, histogram.snapshot() ) );
+        return snapshot;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.WsMethod;
+import oap.ws.security.PasswordHasher;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static oap.http.Request.HttpMethod.GET;
+
+/**
+ * Latency histograms and counters of {@link SecurityMetrics}, and the counters of the hashing pool.
+ */
+public class SecurityMetricsWS {
+    private final PasswordHasher passwordHasher;
+
+    public SecurityMetricsWS( PasswordHasher passwordHasher ) {
+        this.passwordHasher = passwordHasher;
+    }
+
+    @WsMethod( method = GET, path = "/" )
+    public Metrics metrics() {
+        final Metrics metrics = new Metrics();
+        metrics.latency = SecurityMetrics.snapshot();
+        metrics.counters.putAll( SecurityMetrics.counters() );
+
+        if( passwordHasher instanceof BoundedPasswordHasher ) {
+            final BoundedPasswordHasher hasher = ( BoundedPasswordHasher ) passwordHasher;
+            metrics.counters.put( "hash.queueDepth", ( long ) hasher.queueDepth() );
+            metrics.counters.put( "hash.active", ( long ) hasher.activeCount() );
+            metrics.counters.put( "hash.hashed", hasher.hashed() );
+            metrics.counters.put( "hash.rejected", hasher.rejected() );
+        }
+
+        return metrics;
+    }
+
+    public static class Metrics implements Serializable {
+        private static final long serialVersionUID = -4503519462188853178L;
+
+        /**
+         * name -> latencies, microseconds
+         */
+        public Map<String, LatencyHistogram.Snapshot> latency;
+        public Map<String, Long> counters = new TreeMap<>();
+    }
+}
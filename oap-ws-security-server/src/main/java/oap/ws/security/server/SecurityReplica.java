@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.storage.FileStorage;
+import oap.ws.security.DefaultUser;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the local user and organization storages in sync with the primary node.
+ * <p>
+ * Polls the primary's {@link SecurityReplicationMaster} every {@code interval} ms and applies the changes
+ * since the last applied sequence. After a disconnect it resumes from that sequence; a full snapshot
+ * is only transferred on first sync, after a primary restart or when the replica fell behind the
+ * primary's change log. Snapshots come in pages of {@code batchSize} records, an interrupted snapshot
+ * resumes from the last applied page; local records missing from the snapshot are removed once the last
+ * page is applied.
+ */
+@Slf4j
+public class SecurityReplica {
+    private final Replica<DefaultUser> users;
+    private final Replica<Organization> organizations;
+    private final long interval;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread thread = new Thread( r, "security-replica" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    public SecurityReplica( SecurityReplicationMaster master, UserStorage userStorage,
+                            OrganizationStorage organizationStorage, long interval, int batchSize ) {
+        this.users = new Replica<>( "users", master::userChanges, userStorage, DefaultUser::getEmail, batchSize );
+        this.organizations = new Replica<>( "organizations", master::organizationChanges, organizationStorage,
+            organization -> organization.id, batchSize );
+        this.interval = interval;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay( this::sync, 0, interval, MILLISECONDS );
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void sync() {
+        try {
+            organizations.sync();
+            users.sync();
+        } catch( Exception e ) {
+            log.warn( "replication failed, retrying in {} ms: {}", interval, e.toString() );
+            log.trace( e.getMessage(), e );
+        }
+    }
+
+    public long userSequence() {
+        return users.sequence;
+    }
+
+    public long organizationSequence() {
+        return organizations.sequence;
+    }
+
+    interface Feed<T> {
+        ChangeBatch<T> changes( String epoch, long sequence, String after, int limit );
+    }
+
+    private static final class Replica<T> {
+        private final String name;
+        private final Feed<T> feed;
+        private final FileStorage<T> storage;
+        private final Function<T, String> id;
+        private final int batchSize;
+        /**
+         * ids of the snapshot pages applied so far
+         */
+        private final Set<String> snapshot = new HashSet<>();
+        private String epoch;
+        private volatile long sequence;
+        private String after;
+
+        Replica( String name, Feed<T> feed, FileStorage<T> storage, Function<T, String> id, int batchSize ) {
+            this.name = name;
+            this.feed = feed;
+            this.storage = storage;
+            this.id = id;
+            this.batchSize = batchSize;
+        }
+
+        synchronized void sync() {
+            ChangeBatch<T> batch;
+            do {
+                batch = feed.changes( epoch, sequence, after, batchSize );
+
+                if( batch.snapshot ) {
+                    if( after == null || !batch.epoch.equals( epoch ) ) snapshot.clear();
+                    applySnapshot( batch );
+                } else for( Change<T> change : batch.changes ) apply( change );
+
+                epoch = batch.epoch;
+                sequence = batch.lastSequence;
+                after = batch.after;
+            } while( after != null || !batch.snapshot && batch.changes.size() >= batchSize );
+        }
+
+        private void apply( Change<T> change ) {
+            if( change.type == Change.Type.STORE ) storage.store( change.value );
+            else storage.delete( change.id );
+        }
+
+        private void applySnapshot( ChangeBatch<T> page ) {
+            for( Change<T> change : page.changes ) {
+                storage.store( change.value );
+                snapshot.add( change.id );
+            }
+            if( page.after != null ) return;
+
+            final List<String> stale = storage.select().map( id ).filter( i -> !snapshot.contains( i ) ).collect( toList() );
+            stale.forEach( storage::delete );
+
+            log.info( "{}: snapshot of {} records applied at sequence {}, {} stale removed",
+                name, snapshot.size(), page.lastSequence, stale.size() );
+            snapshot.clear();
+        }
+    }
+}
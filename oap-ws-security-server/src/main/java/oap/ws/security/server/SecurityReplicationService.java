@@ -0,0 +1,47 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.DefaultUser;
+
+public class SecurityReplicationService implements SecurityReplicationMaster {
+    private final UserStorage userStorage;
+    private final OrganizationStorage organizationStorage;
+
+    public SecurityReplicationService( UserStorage userStorage, OrganizationStorage organizationStorage ) {
+        this.userStorage = userStorage;
+        this.organizationStorage = organizationStorage;
+    }
+
+    @Override
+    public ChangeBatch<DefaultUser> userChanges( String epoch, long sequence, String after, int limit ) {
+        return userStorage.changes( epoch, sequence, after, limit );
+    }
+
+    @Override
+    public ChangeBatch<Organization> organizationChanges( String epoch, long sequence, String after, int limit ) {
+        return organizationStorage.changes( epoch, sequence, after, limit );
+    }
+}
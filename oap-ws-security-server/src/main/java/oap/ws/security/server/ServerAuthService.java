@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.AuthService;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.PasswordHasher;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import org.joda.time.DateTime;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * {@link AuthService} keeping issued tokens in a {@link TokenStore}, or, when {@link SignedTokens} are enabled,
+ * issuing self-contained signed tokens which any node holding the signing keys validates without a lookup.
+ * Organization {@link ApiKey}s are accepted wherever a token is, without login and without password hashing.
+ * <p>
+ * Stored tokens of a user are revoked when the user is deleted, loses privileges or moves to another
+ * organization. Signed tokens cannot be revoked and live until they expire.
+ */
+@Slf4j
+public class ServerAuthService extends AuthService {
+    private final UserStorage userStorage;
+    private final PasswordHasher passwordHasher;
+    private final TokenStore tokenStore;
+    private final SignedTokens signedTokens;
+    private final AuditLog auditLog;
+    private final ApiKeyStorage apiKeyStorage;
+
+    public ServerAuthService( UserStorage userStorage, PasswordHasher passwordHasher, TokenStore tokenStore ) {
+        this( userStorage, passwordHasher, tokenStore, SignedTokens.disabled() );
+    }
+
+    public ServerAuthService( UserStorage userStorage, PasswordHasher passwordHasher, TokenStore tokenStore,
+                              SignedTokens signedTokens ) {
+        this( userStorage, passwordHasher, tokenStore, signedTokens, AuditLog.disabled(), null );
+    }
+
+    /**
+     * @param auditLog      receives logins, failed logins and logouts
+     * @param apiKeyStorage API keys accepted in place of tokens, null if none
+     */
+    public ServerAuthService( UserStorage userStorage, PasswordHasher passwordHasher, TokenStore tokenStore,
+                              SignedTokens signedTokens, AuditLog auditLog, ApiKeyStorage apiKeyStorage ) {
+        super( userStorage, passwordHasher, 0 );
+
+        this.userStorage = userStorage;
+        this.passwordHasher = passwordHasher;
+        this.tokenStore = tokenStore;
+        this.signedTokens = signedTokens;
+        this.auditLog = auditLog;
+        this.apiKeyStorage = apiKeyStorage;
+
+        userStorage.onUserChange( this::userChanged );
+    }
+
+    /**
+     * A token is issued from the user read before it is stored. If the user changes in between,
+     * the revocation may run before the token is stored, so the token is dropped and issued again
+     * from the changed user.
+     */
+    @Override
+    public Optional<Token> generateToken( String email, String password ) {
+        while( true ) {
+            final long version = userStorage.userVersion( email );
+
+            final Optional<DefaultUser> user = userStorage.get( email );
+            if( !user.isPresent() ) {
+                auditLog.publish( AuditEvent.Type.LOGIN_FAILED, email, null, email );
+                return Optional.empty();
+            }
+
+            final String hash = passwordHasher.hashPassword( password );
+            if( !hash.equals( user.get().password ) ) {
+                auditLog.publish( AuditEvent.Type.LOGIN_FAILED, email, user.get().organizationId, user.get().email );
+                return Optional.empty();
+            }
+
+            if( signedTokens.enabled ) {
+                auditLog.publish( AuditEvent.Type.LOGIN, user.get().email, user.get().organizationId, user.get().email );
+                return Optional.of( signedTokens.sign( user.get() ) );
+            }
+
+            final Token token = new Token();
+            token.id = UUID.randomUUID().toString();
+            token.created = DateTime.now();
+            token.user = Converters.toUserDTO( user.get() );
+
+            tokenStore.put( token );
+
+            if( userStorage.userVersion( email ) != version ) {
+                tokenStore.remove( token.id );
+                log.trace( "user [{}] changed during login, token [{}] reissued", email, token.id );
+                continue;
+            }
+
+            auditLog.publish( AuditEvent.Type.LOGIN, user.get().email, user.get().organizationId, user.get().email );
+            log.trace( "token [{}] issued to [{}]", token.id, token.user.getEmail() );
+
+            return Optional.of( token );
+        }
+    }
+
+    @Override
+    public Optional<Token> getToken( String id ) {
+        if( SignedTokens.isSigned( id ) )
+            return signedTokens.enabled ? signedTokens.verify( id ) : Optional.empty();
+        if( ApiKeyStorage.isApiKey( id ) )
+            return apiKeyStorage != null ? apiKeyStorage.authenticate( id ) : Optional.empty();
+
+        return tokenStore.get( id );
+    }
+
+    @Override
+    public void invalidateUser( String email ) {
+        auditLog.publish( AuditEvent.Type.LOGOUT, email, null, email );
+        tokenStore.removeByUser( email );
+    }
+
+    /**
+     * Revokes the stored tokens of the user, without a logout event.
+     *
+     * @return number of revoked tokens
+     */
+    public int revokeUser( String email ) {
+        final List<String> revoked = tokenStore.removeByUser( email );
+        if( !revoked.isEmpty() ) log.debug( "{} tokens of [{}] revoked", revoked.size(), email );
+        return revoked.size();
+    }
+
+    /**
+     * Revokes the stored tokens of every user of the organization.
+     *
+     * @return number of revoked tokens
+     */
+    public int revokeOrganization( String organizationId ) {
+        return userStorage.selectByOrganization( organizationId )
+            .mapToInt( user -> revokeUser( user.email ) )
+            .sum();
+    }
+
+    private void userChanged( String email, Role previousRole, String previousOrganizationId, DefaultUser user ) {
+        if( user == null
+            || !Objects.equals( previousOrganizationId, user.organizationId )
+            || downgraded( previousRole, user.role ) )
+            revokeUser( email );
+    }
+
+    private static boolean downgraded( Role previous, Role current ) {
+        if( previous == null ) return false;
+        return current == null || current.precedence > previous.precedence;
+    }
+}
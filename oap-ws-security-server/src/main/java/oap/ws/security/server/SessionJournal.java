@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Append-only journal of numbered segment files, {@code <sequence>.journal}.
+ * <p>
+ * Record: {@code type(1) length(4) payload crc32(4)}. Segments are read through memory mapping;
+ * replay stops at the first torn or corrupted record of a segment.
+ * <p>
+ * Compaction rolls the active segment (sequences advance by 2) and writes a snapshot under the
+ * odd sequence in between, so the snapshot replays after the compacted segments and before
+ * everything appended since.
+ */
+@Slf4j
+final class SessionJournal implements Closeable {
+    static final String EXTENSION = ".journal";
+    private static final int HEADER = 5;
+    private static final int TRAILER = 4;
+
+    private final Path directory;
+    private final long segmentSize;
+    private FileChannel active;
+    private long activeSequence;
+    private long activeSize;
+
+    SessionJournal( Path directory, long segmentSize ) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories( directory );
+            final List<Long> sequences = sequences();
+            open( sequences.isEmpty() ? 0 : ( sequences.get( sequences.size() - 1 ) / 2 + 1 ) * 2 );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    synchronized void append( byte type, byte[] payload ) {
+        try {
+            active.write( record( type, payload ) );
+            activeSize += HEADER + payload.length + TRAILER;
+            if( activeSize >= segmentSize ) open( activeSequence + 2 );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    synchronized void force() {
+        try {
+            active.force( false );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Starts a new segment.
+     *
+     * @return sequence the snapshot of the state up to this point has to be written under
+     */
+    synchronized long roll() {
+        try {
+            open( activeSequence + 2 );
+            return activeSequence - 1;
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    synchronized int segments() {
+        try {
+            return sequences().size();
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Writes the snapshot records atomically and deletes the segments it replaces.
+     */
+    void snapshot( long sequence, List<byte[]> payloads, byte type ) {
+        final Path tmp = directory.resolve( sequence + EXTENSION + ".tmp" );
+        try {
+            try( FileChannel channel = FileChannel.open( tmp, CREATE, WRITE, TRUNCATE_EXISTING ) ) {
+                for( byte[] payload : payloads ) channel.write( record( type, payload ) );
+                channel.force( true );
+            }
+            Files.move( tmp, file( sequence ), ATOMIC_MOVE );
+
+            for( long s : sequences() )
+                if( s < sequence ) Files.deleteIfExists( file( s ) );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Replays the records of all segments modified after {@code notBefore}, oldest first.
+     */
+    void replay( long notBefore, RecordConsumer consumer ) {
+        try {
+            for( long sequence : sequences() ) {
+                final Path file = file( sequence );
+                if( Files.getLastModifiedTime( file ).toMillis() < notBefore ) continue;
+
+                try( FileChannel channel = FileChannel.open( file, READ ) ) {
+                    if( channel.size() == 0 ) continue;
+
+                    final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+                    final CRC32 crc = new CRC32();
+                    while( buffer.remaining() >= HEADER + TRAILER ) {
+                        final int start = buffer.position();
+                        final byte type = buffer.get();
+                        final int length = buffer.getInt();
+                        if( length < 0 || length + TRAILER > buffer.remaining() ) break;
+
+                        final ByteBuffer record = ( ByteBuffer ) buffer.duplicate().position( start ).limit( start + HEADER + length );
+                        crc.reset();
+                        crc.update( record );
+                        buffer.position( start + HEADER + length );
+                        if( ( int ) crc.getValue() != buffer.getInt() ) {
+                            log.warn( "{}: corrupted record at {}, skipping the rest of the segment", file, start );
+                            break;
+                        }
+
+                        final ByteBuffer payload = ( ByteBuffer ) buffer.duplicate().position( start + HEADER ).limit( start + HEADER + length );
+                        consumer.accept( type, payload.slice() );
+                    }
+                }
+            }
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            active.force( true );
+            active.close();
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private void open( long sequence ) throws IOException {
+        if( active != null ) {
+            active.force( true );
+            active.close();
+        }
+        active = FileChannel.open( file( sequence ), CREATE, WRITE, APPEND );
+        activeSequence = sequence;
+        activeSize = active.size();
+    }
+
+    private static ByteBuffer record( byte type, byte[] payload ) {
+        final ByteBuffer buffer = ByteBuffer.allocate( HEADER + payload.length + TRAILER );
+        buffer.put( type ).putInt( payload.length ).put( payload );
+
+        final CRC32 crc = new CRC32();
+        crc.update( buffer.array(), 0, HEADER + payload.length );
+        buffer.putInt( ( int ) crc.getValue() );
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private Path file( long sequence ) {
+        return directory.resolve( sequence + EXTENSION );
+    }
+
+    private List<Long> sequences() throws IOException {
+        try( Stream<Path> files = Files.list( directory ) ) {
+            return files
+                .map( f -> f.getFileName().toString() )
+                .filter( name -> name.endsWith( EXTENSION ) )
+                .map( name -> Long.parseLong( name.substring( 0, name.length() - EXTENSION.length() ) ) )
+                .sorted()
+                .collect( toList() );
+        }
+    }
+
+    interface RecordConsumer {
+        void accept( byte type, ByteBuffer payload );
+    }
+}
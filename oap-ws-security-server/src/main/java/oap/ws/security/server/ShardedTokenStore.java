@@ -0,0 +1,357 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.Token;
+import org.joda.time.DateTimeUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * In-memory token store, lock-striped by token id.
+ * <p>
+ * Lookups are lock free. Expiration is idle based ({@code expirationTime} after the last access) and
+ * driven by a hierarchical timing wheel per shard: a hit only records the access time, the wheel
+ * re-checks the entry when its slot comes up and re-schedules it if it has been used since.
+ * Insertion, removal and expiration are O(1). The number of live tokens is bounded by
+ * {@code maxTokens}; a full shard evicts the token closest to expiration.
+ * <p>
+ * A reverse index from lower-cased email to token ids makes {@link #removeByUser} O(tokens of the user).
+ * It is updated under the shard lock by every insertion, removal, expiration and eviction, through atomic
+ * per-email map operations, so logins, logouts and expirations of one user racing on different shards
+ * never lose an id.
+ */
+@Slf4j
+public class ShardedTokenStore implements TokenStore {
+    private final Shard[] shards;
+    private final int mask;
+    private final long ttl;
+    private final long tick;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread thread = new Thread( r, "token-store-ticker" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    private final AtomicLong evicted = new AtomicLong();
+    /**
+     * lower-cased email -> ids of its live tokens
+     */
+    private final ConcurrentHashMap<String, Set<String>> byUser = new ConcurrentHashMap<>();
+
+    /**
+     * @param expirationTime idle expiration, minutes
+     * @param shards         number of lock stripes, rounded up to a power of two
+     * @param maxTokens      upper bound of live tokens
+     * @param tick           timing wheel resolution, ms
+     */
+    public ShardedTokenStore( int expirationTime, int shards, int maxTokens, long tick ) {
+        this( MINUTES.toMillis( expirationTime ), shards, maxTokens, tick, DateTimeUtils.currentTimeMillis() );
+    }
+
+    ShardedTokenStore( long ttl, int shards, int maxTokens, long tick, long now ) {
+        final int count = Integer.highestOneBit( Math.max( 1, shards - 1 ) ) << 1;
+        this.shards = new Shard[count];
+        this.mask = count - 1;
+        this.ttl = ttl;
+        this.tick = tick;
+
+        final int capacity = Math.max( 1, maxTokens / count );
+        for( int i = 0; i < count; i++ ) this.shards[i] = new Shard( capacity, now / tick );
+    }
+
+    public void start() {
+        ticker.scheduleWithFixedDelay( this::expire, tick, tick, MILLISECONDS );
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    @Override
+    public void put( Token token ) {
+        put( token, DateTimeUtils.currentTimeMillis() );
+    }
+
+    /**
+     * Restores a token last accessed at {@code lastAccess}.
+     */
+    public void put( Token token, long lastAccess ) {
+        final Entry entry = new Entry( token, lastAccess );
+
+        shard( token.id ).add( entry, ( lastAccess + ttl ) / tick );
+    }
+
+    /**
+     * idle expiration, ms
+     */
+    public long expiration() {
+        return ttl;
+    }
+
+    @Override
+    public Optional<Token> get( String id ) {
+        final Entry entry = shard( id ).entries.get( id );
+        if( entry == null ) return Optional.empty();
+
+        final long now = DateTimeUtils.currentTimeMillis();
+        if( now - entry.lastAccess > ttl ) return Optional.empty();
+
+        // only touch the shared cache line when the access moves the deadline by at least a tick
+        if( now - entry.lastAccess >= tick ) entry.lastAccess = now;
+
+        return Optional.of( entry.token );
+    }
+
+    @Override
+    public void remove( String id ) {
+        shard( id ).remove( id );
+    }
+
+    @Override
+    public List<String> removeByUser( String email ) {
+        final Set<String> ids = byUser.get( UserStorage.fold( email ) );
+        if( ids == null ) return Collections.emptyList();
+
+        final List<String> removed = new ArrayList<>( ids.size() );
+        for( String id : new ArrayList<>( ids ) )
+            if( shard( id ).remove( id ) ) removed.add( id );
+        return removed;
+    }
+
+    /**
+     * @return number of users with live tokens
+     */
+    public int users() {
+        return byUser.size();
+    }
+
+    /**
+     * Iterates live tokens with their last access time.
+     */
+    public void forEach( ObjLongConsumer<Token> action ) {
+        final long now = DateTimeUtils.currentTimeMillis();
+        for( Shard shard : shards )
+            for( Entry entry : shard.entries.values() ) {
+                final long lastAccess = entry.lastAccess;
+                if( now - lastAccess <= ttl ) action.accept( entry.token, lastAccess );
+            }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for( Shard shard : shards ) size += shard.entries.size();
+        return size;
+    }
+
+    public long evicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Advances the timing wheels to the current time, expiring idle tokens.
+     */
+    public void expire() {
+        final long now = DateTimeUtils.currentTimeMillis();
+        for( Shard shard : shards ) shard.advance( now );
+    }
+
+    private void index( Entry entry ) {
+        byUser.compute( entry.email, ( email, ids ) -> {
+            final Set<String> result = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            result.add( entry.token.id );
+            return result;
+        } );
+    }
+
+    private void unindex( Entry entry ) {
+        byUser.computeIfPresent( entry.email, ( email, ids ) -> {
+            ids.remove( entry.token.id );
+            return ids.isEmpty() ? null : ids;
+        } );
+    }
+
+    private Shard shard( String id ) {
+        int h = id.hashCode();
+        h ^= h >>> 16;
+        return shards[h & mask];
+    }
+
+    private static final class Entry {
+        final Token token;
+        final String email;
+        volatile long lastAccess;
+        long deadline;
+        int level;
+        Entry prev;
+        Entry next;
+
+        Entry( Token token, long lastAccess ) {
+            this.token = token;
+            this.email = UserStorage.fold( token.user.getEmail() );
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Token map plus a 4 level wheel of 64 slots: level l slots span 64^l ticks,
+     * so the wheel covers 64^4 ticks (194 days with 1s ticks).
+     */
+    private final class Shard {
+        private static final int BITS = 6;
+        private static final int SLOTS = 1 << BITS;
+        private static final int LEVELS = 4;
+
+        final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        private final Entry[][] wheel = new Entry[LEVELS][SLOTS];
+        private final int capacity;
+        private long currentTick;
+
+        Shard( int capacity, long currentTick ) {
+            this.capacity = capacity;
+            this.currentTick = currentTick;
+        }
+
+        synchronized void add( Entry entry, long deadline ) {
+            final Entry previous = entries.put( entry.token.id, entry );
+            if( previous != null ) {
+                unlink( previous );
+                unindex( previous );
+            } else if( entries.size() > capacity ) evictEarliest();
+
+            schedule( entry, deadline );
+            index( entry );
+        }
+
+        synchronized boolean remove( String id ) {
+            final Entry entry = entries.remove( id );
+            if( entry == null ) return false;
+
+            unlink( entry );
+            unindex( entry );
+            return true;
+        }
+
+        synchronized void advance( long now ) {
+            final long target = now / tick;
+            while( currentTick < target ) {
+                currentTick++;
+
+                int levels = 1;
+                while( levels < LEVELS && ( currentTick & ( ( 1L << ( BITS * levels ) ) - 1 ) ) == 0 ) levels++;
+                for( int level = levels - 1; level > 0; level-- ) cascade( level, slot( currentTick, level ) );
+
+                Entry entry = detach( 0, slot( currentTick, 0 ) );
+                while( entry != null ) {
+                    final Entry next = entry.next;
+                    entry.prev = entry.next = null;
+
+                    final long deadline = ( entry.lastAccess + ttl ) / tick;
+                    if( deadline > currentTick ) schedule( entry, deadline );
+                    else if( entries.remove( entry.token.id, entry ) ) unindex( entry );
+
+                    entry = next;
+                }
+            }
+        }
+
+        private void cascade( int level, int slot ) {
+            Entry entry = detach( level, slot );
+            while( entry != null ) {
+                final Entry next = entry.next;
+                entry.prev = entry.next = null;
+                schedule( entry, entry.deadline );
+                entry = next;
+            }
+        }
+
+        private void schedule( Entry entry, long deadline ) {
+            final long delta = Math.max( 1, deadline - currentTick );
+            final long at = currentTick + delta;
+
+            int level = 0;
+            while( level < LEVELS - 1 && delta >= 1L << ( BITS * ( level + 1 ) ) ) level++;
+
+            entry.deadline = at;
+            entry.level = level;
+
+            final Entry[] slots = wheel[level];
+            final int slot = slot( at, level );
+            entry.next = slots[slot];
+            if( entry.next != null ) entry.next.prev = entry;
+            slots[slot] = entry;
+        }
+
+        private void unlink( Entry entry ) {
+            if( entry.prev != null ) entry.prev.next = entry.next;
+            else {
+                final Entry[] slots = wheel[entry.level];
+                final int slot = slot( entry.deadline, entry.level );
+                if( slots[slot] == entry ) slots[slot] = entry.next;
+            }
+            if( entry.next != null ) entry.next.prev = entry.prev;
+            entry.prev = entry.next = null;
+        }
+
+        private Entry detach( int level, int slot ) {
+            final Entry head = wheel[level][slot];
+            wheel[level][slot] = null;
+            return head;
+        }
+
+        /**
+         * Drops the entry of the nearest non-empty slot, the first to expire up to the slot resolution.
+         */
+        private void evictEarliest() {
+            for( int level = 0; level < LEVELS; level++ )
+                for( int i = 1; i <= SLOTS; i++ ) {
+                    final Entry head = wheel[level][slot( ( currentTick >> ( BITS * level ) ) + i, 0 )];
+                    if( head != null ) {
+                        unlink( head );
+                        if( entries.remove( head.token.id, head ) ) unindex( head );
+                        evicted.incrementAndGet();
+                        return;
+                    }
+                }
+        }
+
+        private int slot( long tick, int level ) {
+            return ( int ) ( ( tick >>> ( BITS * level ) ) & ( SLOTS - 1 ) );
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Self-contained tokens signed with HMAC-SHA256, validated without any storage access.
+ * <p>
+ * Token format: {@code "s." + base64url( payload + mac )}, payload being
+ * {@code version(1) keyIdLength(1) keyId created(8) expires(8) role(1) emailLength(2) email organizationLength(2) organization}.
+ * Tokens are signed with {@code currentKey}; any key of {@code keys} is accepted, so a key is rotated by
+ * adding the new one, making it current and removing the old one after {@code expirationTime}.
+ * <p>
+ * Signed tokens cannot be revoked before they expire: logout, user deletion and role downgrades,
+ * which revoke stored tokens, leave them valid, so {@code expirationTime} should stay short.
+ * The module ships no key, the secrets come from the deployment configuration.
+ */
+@Slf4j
+public class SignedTokens {
+    static final String PREFIX = "s.";
+    private static final byte VERSION = 1;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final Role[] ROLES = Role.values();
+
+    public final boolean enabled;
+    private final long expiration;
+    private final String currentKey;
+    private final Map<String, SigningKey> keys = new HashMap<>();
+
+    /**
+     * @param expirationTime minutes
+     * @param keys           key id -> secret
+     */
+    public SignedTokens( boolean enabled, int expirationTime, String currentKey, Map<String, String> keys ) {
+        this.enabled = enabled;
+        this.expiration = MINUTES.toMillis( expirationTime );
+        this.currentKey = currentKey;
+
+        keys.forEach( ( id, secret ) -> {
+            if( id.getBytes( UTF_8 ).length > Byte.MAX_VALUE )
+                throw new IllegalArgumentException( "key id is too long: " + id );
+            this.keys.put( id, new SigningKey( secret ) );
+        } );
+
+        if( enabled && !this.keys.containsKey( currentKey ) )
+            throw new IllegalArgumentException( "unknown current key " + currentKey );
+    }
+
+    public static SignedTokens disabled() {
+        return new SignedTokens( false, 0, "", new HashMap<>() );
+    }
+
+    public static boolean isSigned( String id ) {
+        return id.startsWith( PREFIX );
+    }
+
+    public Token sign( DefaultUser user ) {
+        final long created = DateTimeUtils.currentTimeMillis();
+        final byte[] keyId = currentKey.getBytes( UTF_8 );
+        final byte[] email = user.email.getBytes( UTF_8 );
+        final byte[] organization = user.organizationId != null ? user.organizationId.getBytes( UTF_8 ) : new byte[0];
+
+        final ByteBuffer buffer = ByteBuffer.allocate( 1 + 1 + keyId.length + 8 + 8 + 1
+            + 2 + email.length + 2 + organization.length + MAC_LENGTH );
+        buffer.put( VERSION );
+        buffer.put( ( byte ) keyId.length ).put( keyId );
+        buffer.putLong( created );
+        buffer.putLong( created + expiration );
+        buffer.put( ( byte ) user.role.ordinal() );
+        buffer.putShort( ( short ) email.length ).put( email );
+        buffer.putShort( ( short ) organization.length ).put( organization );
+
+        final byte[] bytes = buffer.array();
+        final int payloadLength = buffer.position();
+        buffer.put( keys.get( currentKey ).mac( bytes, payloadLength ) );
+
+        final Token token = new Token();
+        token.id = PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString( bytes );
+        token.created = new DateTime( created );
+        token.user = new DefaultUser( user.role, user.organizationId, user.email );
+        return token;
+    }
+
+    /**
+     * One MAC computation, no storage access.
+     *
+     * @return the token, if the signature is valid and it has not expired
+     */
+    public Optional<Token> verify( String id ) {
+        if( !isSigned( id ) ) return Optional.empty();
+
+        try {
+            final byte[] bytes = Base64.getUrlDecoder().decode( id.substring( PREFIX.length() ) );
+            if( bytes.length < MAC_LENGTH + 2 ) return Optional.empty();
+
+            final ByteBuffer buffer = ByteBuffer.wrap( bytes );
+            if( buffer.get() != VERSION ) return Optional.empty();
+
+            final SigningKey key = keys.get( string( buffer, buffer.get() ) );
+            if( key == null ) return Optional.empty();
+
+            final int payloadLength = bytes.length - MAC_LENGTH;
+            final byte[] expected = key.mac( bytes, payloadLength );
+            final byte[] actual = new byte[MAC_LENGTH];
+            System.arraycopy( bytes, payloadLength, actual, 0, MAC_LENGTH );
+            if( !MessageDigest.isEqual( expected, actual ) ) return Optional.empty();
+
+            final long created = buffer.getLong();
+            final long expires = buffer.getLong();
+            if( DateTimeUtils.currentTimeMillis() >= expires ) return Optional.empty();
+
+            final Role role = ROLES[buffer.get()];
+            final String email = string( buffer, buffer.getShort() );
+            final String organization = string( buffer, buffer.getShort() );
+
+            final Token token = new Token();
+            token.id = id;
+            token.created = new DateTime( created );
+            token.user = new DefaultUser( role, organization.isEmpty() ? null : organization, email );
+            return Optional.of( token );
+        } catch( IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e ) {
+            log.trace( "malformed signed token {}", id, e );
+            return Optional.empty();
+        }
+    }
+
+    private static String string( ByteBuffer buffer, int length ) {
+        final String value = new String( buffer.array(), buffer.position(), length, UTF_8 );
+        buffer.position( buffer.position() + length );
+        return value;
+    }
+
+    private static final class SigningKey {
+        private final SecretKeySpec spec;
+        private final ThreadLocal<Mac> mac;
+
+        SigningKey( String secret ) {
+            this.spec = new SecretKeySpec( secret.getBytes( UTF_8 ), ALGORITHM );
+            this.mac = ThreadLocal.withInitial( () -> {
+                try {
+                    final Mac mac = Mac.getInstance( ALGORITHM );
+                    mac.init( spec );
+                    return mac;
+                } catch( GeneralSecurityException e ) {
+                    throw new IllegalStateException( e );
+                }
+            } );
+        }
+
+        byte[] mac( byte[] bytes, int length ) {
+            final Mac mac = this.mac.get();
+            mac.update( bytes, 0, length );
+            return mac.doFinal();
+        }
+    }
+}
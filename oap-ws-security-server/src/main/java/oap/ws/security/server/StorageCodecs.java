@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary records of {@link StorageJournal}. Each record starts with a format version byte.
+ */
+final class StorageCodecs {
+    private static final byte VERSION = 1;
+    private static final Role[] ROLES = Role.values();
+
+    static final StorageJournal.Codec<DefaultUser> USER = new StorageJournal.Codec<DefaultUser>() {
+        @Override
+        public void write( DataOutputStream out, DefaultUser user ) throws IOException {
+            out.writeByte( VERSION );
+            writeString( out, user.email );
+            writeString( out, user.password );
+            out.writeByte( user.role != null ? user.role.ordinal() : -1 );
+            writeString( out, user.organizationId );
+            writeString( out, user.organizationName );
+        }
+
+        @Override
+        public DefaultUser read( ByteBuffer in ) {
+            checkVersion( in );
+
+            final DefaultUser user = new DefaultUser();
+            user.email = readString( in );
+            user.password = readString( in );
+            final byte role = in.get();
+            user.role = role >= 0 ? ROLES[role] : null;
+            user.organizationId = readString( in );
+            user.organizationName = readString( in );
+            return user;
+        }
+
+        @Override
+        public String id( ByteBuffer in ) {
+            checkVersion( in );
+            return readString( in );
+        }
+    };
+
+    static final StorageJournal.Codec<Organization> ORGANIZATION = new StorageJournal.Codec<Organization>() {
+        @Override
+        public void write( DataOutputStream out, Organization organization ) throws IOException {
+            out.writeByte( VERSION );
+            writeString( out, organization.id );
+            writeString( out, organization.name );
+            writeString( out, organization.description );
+        }
+
+        @Override
+        public Organization read( ByteBuffer in ) {
+            checkVersion( in );
+
+            final Organization organization = new Organization( readString( in ) );
+            organization.name = readString( in );
+            organization.description = readString( in );
+            return organization;
+        }
+
+        @Override
+        public String id( ByteBuffer in ) {
+            checkVersion( in );
+            return readString( in );
+        }
+    };
+
+    private StorageCodecs() {
+    }
+
+    private static void checkVersion( ByteBuffer in ) {
+        final byte version = in.get();
+        if( version != VERSION ) throw new IllegalStateException( "unknown record version " + version );
+    }
+
+    /**
+     * length (-1 for null) followed by UTF-8 bytes
+     */
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if( value == null ) {
+            out.writeInt( -1 );
+            return;
+        }
+        final byte[] bytes = value.getBytes( UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( ByteBuffer in ) {
+        final int length = in.getInt();
+        if( length < 0 ) return null;
+
+        final byte[] bytes = new byte[length];
+        in.get( bytes );
+        return new String( bytes, UTF_8 );
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Binary persistence of a storage: a snapshot plus an append log of stores and deletes, kept in a
+ * {@link SessionJournal}. Loading is one sequential pass over memory-mapped segments collecting the
+ * live records, which are then decoded in parallel: no directory listing of per-record files and no JSON parsing.
+ * <p>
+ * Appends are forced to disk every {@code fsync} ms. Once there are more than {@code maxSegments} segments
+ * the journal is compacted into a snapshot of the live records. The records are collected and the journal rolled
+ * under the storage lock, the snapshot is written without it: a record changed during compaction is in the segment
+ * replayed after the snapshot.
+ * <p>
+ * With a {@code writeBehind} window stores and deletes only mark the id dirty, keeping the latest record
+ * encoded at the time of the store, so later changes to the instance can't leak into the journal.
+ * A background flush appends the dirty records every {@code writeBehind} ms, or as soon as
+ * {@code flushBatch} ids are dirty, and forces them with one fsync: repeated writes of an id within a window
+ * are coalesced into one append. A failed flush leaves its records dirty, unless they were changed since,
+ * for the next flush to retry. {@link #sync()} is the durability barrier for callers that must wait, it throws
+ * if the dirty records can't be flushed.
+ */
+@Slf4j
+final class StorageJournal<T> {
+    static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte STORE = 1;
+    private static final byte DELETE = 2;
+    private static final byte[] DELETED = new byte[0];
+
+    private final SessionJournal journal;
+    private final Codec<T> codec;
+    private final Function<T, String> identifier;
+    private final Object lock;
+    private final Supplier<Collection<T>> live;
+    private final int maxSegments;
+    private final ScheduledExecutorService background;
+
+    private final long writeBehind;
+    private final int flushBatch;
+    /**
+     * id -> latest encoded record, or {@link #DELETED}, not appended yet
+     */
+    private final ConcurrentHashMap<String, byte[]> dirty = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /**
+     * {@link System#nanoTime()} of the oldest change not flushed yet, 0 if none
+     */
+    private final AtomicLong dirtySince = new AtomicLong();
+    private final LatencyHistogram flushLag;
+    private final LongAdder flushes;
+    private final LongAdder flushed;
+    private final AtomicLong maxBatch = new AtomicLong();
+    /**
+     * sequence of the latest snapshot rolled, an older one still being written is superseded
+     */
+    private long snapshotSequence;
+
+    /**
+     * @param name        metrics prefix
+     * @param lock        storage lock, held by the storage around its changes
+     * @param live        copy of the current records of the storage, the content of a compacted snapshot, read under
+     *                    {@code lock}; null while the storage is not fully loaded and must not be compacted
+     * @param fsync       ms
+     * @param writeBehind flush window, ms; 0 appends synchronously
+     * @param flushBatch  dirty ids triggering a flush before the window ends
+     */
+    StorageJournal( Path path, String name, Codec<T> codec, Function<T, String> identifier, Object lock,
+                    Supplier<Collection<T>> live, long fsync, int maxSegments, long writeBehind, int flushBatch ) {
+        this.journal = new SessionJournal( path, SEGMENT_SIZE );
+        this.codec = codec;
+        this.identifier = identifier;
+        this.lock = lock;
+        this.live = live;
+        this.maxSegments = maxSegments;
+        this.writeBehind = writeBehind;
+        this.flushBatch = Math.max( 1, flushBatch );
+
+        this.flushLag = SecurityMetrics.histogram( name + ".flushLag" );
+        this.flushes = SecurityMetrics.counter( name + ".flushes" );
+        this.flushed = SecurityMetrics.counter( name + ".flushedRecords" );
+        SecurityMetrics.gauge( name + ".dirty", dirty::size );
+        SecurityMetrics.gauge( name + ".maxFlushBatch", maxBatch::get );
+
+        this.background = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread thread = new Thread( r, "storage-journal-" + path.getFileName() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        background.scheduleWithFixedDelay( this::maintain, fsync, fsync, MILLISECONDS );
+        if( writeBehind > 0 )
+            background.scheduleWithFixedDelay( this::flushQuietly, writeBehind, writeBehind, MILLISECONDS );
+    }
+
+    /**
+     * Binary data of the storage persisted as JSON in {@code jsonPath}: {@code <jsonPath>.bin}.
+     */
+    static Path binaryPath( Path jsonPath ) {
+        return jsonPath.resolveSibling( jsonPath.getFileName() + ".bin" );
+    }
+
+    /**
+     * Moves a migrated JSON directory aside, to {@code <jsonPath>.json-migrated}, leaving an empty one.
+     */
+    static void retire( Path jsonPath ) {
+        final Path migrated = jsonPath.resolveSibling( jsonPath.getFileName() + ".json-migrated" );
+        try {
+            if( Files.exists( migrated ) ) oap.io.Files.delete( migrated );
+            if( Files.exists( jsonPath ) ) Files.move( jsonPath, migrated );
+            Files.createDirectories( jsonPath );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        log.info( "{} migrated, JSON records moved to {}", jsonPath, migrated );
+    }
+
+    /**
+     * @return a directory holding a journal
+     */
+    static boolean exists( Path path ) {
+        if( !Files.isDirectory( path ) ) return false;
+        try( Stream<Path> files = Files.list( path ) ) {
+            return files.anyMatch( f -> f.getFileName().toString().endsWith( SessionJournal.EXTENSION ) );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Live records by id, still encoded: one sequential pass over the segments decoding only the ids.
+     */
+    Map<String, ByteBuffer> scan() {
+        final Map<String, ByteBuffer> live = new LinkedHashMap<>();
+
+        journal.replay( 0, ( type, payload ) -> {
+            if( type == STORE ) live.put( codec.id( payload.duplicate() ), payload );
+            else if( type == DELETE ) live.remove( UTF_8.decode( payload ).toString() );
+        } );
+
+        return live;
+    }
+
+    /**
+     * Decodes the records of a {@link #scan()} in parallel.
+     */
+    List<T> decode( Collection<ByteBuffer> records ) {
+        return records.parallelStream().map( this::decode ).collect( toList() );
+    }
+
+    T decode( ByteBuffer record ) {
+        return codec.read( record.duplicate() );
+    }
+
+    List<T> load() {
+        return decode( scan().values() );
+    }
+
+    String id( T record ) {
+        return identifier.apply( record );
+    }
+
+    void store( T record ) {
+        if( writeBehind > 0 ) markDirty( id( record ), encode( record ) );
+        else journal.append( STORE, encode( record ) );
+    }
+
+    void delete( String id ) {
+        if( writeBehind > 0 ) markDirty( id, DELETED );
+        else journal.append( DELETE, id.getBytes( UTF_8 ) );
+    }
+
+    /**
+     * Durability barrier: returns once every change made before the call is appended and forced to disk.
+     */
+    void sync() {
+        if( writeBehind > 0 ) flush();
+        else journal.force();
+    }
+
+    /**
+     * Appends the dirty records and forces them with one fsync. On failure the records taken are put back,
+     * unless changed meanwhile, and the exception is rethrown.
+     *
+     * @return number of records appended
+     */
+    synchronized int flush() {
+        flushScheduled.set( false );
+        if( dirty.isEmpty() ) return 0;
+
+        final long since = dirtySince.getAndSet( 0 );
+        final Map<String, byte[]> taken = new LinkedHashMap<>();
+        try {
+            for( String id : dirty.keySet() ) {
+                final byte[] record = dirty.remove( id );
+                if( record == null ) continue;
+                taken.put( id, record );
+
+                if( record == DELETED ) journal.append( DELETE, id.getBytes( UTF_8 ) );
+                else journal.append( STORE, record );
+            }
+            journal.force();
+        } catch( RuntimeException | Error e ) {
+            taken.forEach( dirty::putIfAbsent );
+            if( since != 0 ) dirtySince.compareAndSet( 0, since );
+            throw e;
+        }
+
+        final int count = taken.size();
+
+        flushes.increment();
+        flushed.add( count );
+        maxBatch.accumulateAndGet( count, Math::max );
+        if( since != 0 ) flushLag.recordSince( since );
+        return count;
+    }
+
+    /**
+     * Replaces the journal with a snapshot of {@code live}, the complete state of the storage: dirty records
+     * are dropped, they must not be appended after the snapshot. Callers hold the storage lock.
+     */
+    synchronized void compact( Collection<T> live ) {
+        dirty.clear();
+        snapshotSequence = journal.roll();
+        write( snapshotSequence, live );
+    }
+
+    /**
+     * Dirty records are kept: a record changed while the snapshot is taken is appended after it.
+     * <p>
+     * The records are collected and the journal rolled under the storage lock, with no change in between:
+     * a change the records miss is appended after the roll, to a segment the snapshot keeps.
+     */
+    private void snapshot() {
+        final long sequence;
+        final Collection<T> records;
+        synchronized( lock ) {
+            records = live.get();
+            if( records == null ) return;
+            synchronized( this ) {
+                sequence = journal.roll();
+                snapshotSequence = sequence;
+            }
+        }
+
+        final List<byte[]> encoded = encode( records );
+        synchronized( this ) {
+            if( sequence != snapshotSequence ) {
+                log.debug( "storage journal snapshot {} superseded by {}", sequence, snapshotSequence );
+                return;
+            }
+            journal.snapshot( sequence, encoded, STORE );
+        }
+        log.debug( "storage journal compacted, {} records", encoded.size() );
+    }
+
+    private void write( long sequence, Collection<T> live ) {
+        final List<byte[]> records = encode( live );
+        journal.snapshot( sequence, records, STORE );
+
+        log.debug( "storage journal compacted, {} records", records.size() );
+    }
+
+    void close() {
+        if( writeBehind > 0 ) {
+            background.shutdown();
+            try {
+                background.awaitTermination( 10, SECONDS );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+        background.shutdownNow();
+        journal.close();
+    }
+
+    private void markDirty( String id, byte[] record ) {
+        dirtySince.compareAndSet( 0, System.nanoTime() );
+        dirty.put( id, record );
+
+        if( dirty.size() >= flushBatch && flushScheduled.compareAndSet( false, true ) )
+            background.execute( this::flushQuietly );
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch( Exception e ) {
+            log.error( "storage journal flush failed", e );
+        }
+    }
+
+    private void maintain() {
+        try {
+            journal.force();
+            if( journal.segments() > maxSegments ) snapshot();
+        } catch( Exception e ) {
+            log.error( "storage journal maintenance failed", e );
+        }
+    }
+
+    private List<byte[]> encode( Collection<T> live ) {
+        final List<byte[]> records = new ArrayList<>( live.size() );
+        for( T record : live ) records.add( encode( record ) );
+        return records;
+    }
+
+    private byte[] encode( T record ) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+        try( DataOutputStream out = new DataOutputStream( bytes ) ) {
+            codec.write( out, record );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    interface Codec<T> {
+        void write( DataOutputStream out, T record ) throws IOException;
+
+        T read( ByteBuffer in );
+
+        /**
+         * id of the encoded record, without decoding the rest
+         */
+        String id( ByteBuffer in );
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Background loading of a storage from the records of a {@link StorageJournal#scan()}.
+ * <p>
+ * Records are decoded in parallel batches and restored into the storage under its monitor ({@code lock}).
+ * A record asked for before its batch comes is loaded on demand with {@link #load(String)}; a record stored
+ * or deleted meanwhile is removed from the pending ones first, so the loader never overwrites a newer state.
+ * The storage is {@link #ready()} once every record has been restored.
+ * <p>
+ * A record that cannot be decoded or restored is logged, counted in {@code loader.<name>.failures} and skipped,
+ * it does not stop the loading. Any other failure of the background thread leaves the loader {@link #failed()}:
+ * pending records are still restored on demand, but the storage never becomes ready.
+ */
+@Slf4j
+final class StorageLoader<T> {
+    private static final int BATCH = 10_000;
+
+    private final StorageJournal<T> journal;
+    private final ConcurrentSkipListMap<String, ByteBuffer> pending;
+    private final Object lock;
+    private final Consumer<T> restore;
+    private final Thread thread;
+    private final LongAdder failures;
+    private volatile boolean ready;
+    private volatile boolean failed;
+
+    /**
+     * @param order   order of the ids, ids are looked up as given
+     * @param restore puts the decoded record into the storage, called holding {@code lock}
+     */
+    StorageLoader( String name, StorageJournal<T> journal, Map<String, ByteBuffer> records, Comparator<String> order,
+                   Object lock, Consumer<T> restore ) {
+        this.journal = journal;
+        this.pending = new ConcurrentSkipListMap<>( order );
+        this.pending.putAll( records );
+        this.lock = lock;
+        this.restore = restore;
+        this.thread = new Thread( this::run, name + "-loader" );
+        this.thread.setDaemon( true );
+        this.failures = SecurityMetrics.counter( "loader." + name + ".failures" );
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        thread.interrupt();
+    }
+
+    boolean ready() {
+        return ready;
+    }
+
+    /**
+     * @return true if the background loading stopped on an unexpected error
+     */
+    boolean failed() {
+        return failed;
+    }
+
+    /**
+     * Restores the record now if it is still pending. Must be called holding {@code lock}.
+     *
+     * @return the restored record, null if it is not pending
+     */
+    T load( String id ) {
+        if( ready ) return null;
+
+        final Map.Entry<String, ByteBuffer> entry = pending.ceilingEntry( id );
+        if( entry == null || pending.comparator().compare( entry.getKey(), id ) != 0 ) return null;
+        if( !pending.remove( entry.getKey(), entry.getValue() ) ) return null;
+
+        final T record = decode( entry );
+        return restore( entry.getKey(), record ) ? record : null;
+    }
+
+    /**
+     * Drops all pending records. Must be called holding {@code lock}.
+     */
+    void clear() {
+        pending.clear();
+    }
+
+    private void run() {
+        final long start = System.currentTimeMillis();
+        final List<Map.Entry<String, ByteBuffer>> records = new ArrayList<>( pending.entrySet() );
+        int restored = 0;
+
+        try {
+            for( int from = 0; from < records.size(); from += BATCH ) {
+                if( Thread.currentThread().isInterrupted() ) return;
+
+                final List<Map.Entry<String, ByteBuffer>> batch = records.subList( from, Math.min( from + BATCH, records.size() ) );
+                final List<T> decoded = batch.parallelStream().map( this::decode ).collect( toList() );
+                synchronized( lock ) {
+                    for( int i = 0; i < batch.size(); i++ ) {
+                        final Map.Entry<String, ByteBuffer> entry = batch.get( i );
+                        if( pending.remove( entry.getKey(), entry.getValue() ) && restore( entry.getKey(), decoded.get( i ) ) )
+                            restored++;
+                    }
+                }
+            }
+
+            ready = true;
+            log.info( "{}: {} records loaded in background in {} ms, {} failed", thread.getName(), restored,
+                System.currentTimeMillis() - start, failures.sum() );
+        } catch( RuntimeException e ) {
+            failed = true;
+            log.error( thread.getName() + ": background loading failed, " + pending.size() + " records left to load on demand", e );
+        }
+    }
+
+    /**
+     * @return null if the record cannot be decoded
+     */
+    private T decode( Map.Entry<String, ByteBuffer> entry ) {
+        try {
+            return journal.decode( entry.getValue() );
+        } catch( RuntimeException e ) {
+            log.error( thread.getName() + ": record [" + entry.getKey() + "] cannot be decoded, skipped", e );
+            return null;
+        }
+    }
+
+    /**
+     * @return false if the record is skipped
+     */
+    private boolean restore( String id, T record ) {
+        if( record == null ) {
+            failures.increment();
+            return false;
+        }
+        try {
+            restore.accept( record );
+            return true;
+        } catch( RuntimeException e ) {
+            failures.increment();
+            log.error( thread.getName() + ": record [" + id + "] cannot be restored, skipped", e );
+            return false;
+        }
+    }
+}
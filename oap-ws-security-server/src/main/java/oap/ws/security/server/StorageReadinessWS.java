@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.WsMethod;
+
+import java.io.Serializable;
+
+import static oap.http.Request.HttpMethod.GET;
+
+/**
+ * Readiness of the storages for the load balancer: 200 once {@link UserStorage} and {@link OrganizationStorage}
+ * are fully loaded, 503 before, 500 if a background load failed. Single-record requests are served during a lazy load,
+ * listings are not.
+ */
+public class StorageReadinessWS {
+    private final UserStorage userStorage;
+    private final OrganizationStorage organizationStorage;
+
+    public StorageReadinessWS( UserStorage userStorage, OrganizationStorage organizationStorage ) {
+        this.userStorage = userStorage;
+        this.organizationStorage = organizationStorage;
+    }
+
+    @WsMethod( method = GET, path = "/" )
+    public Readiness ready() {
+        final Readiness readiness = new Readiness();
+        readiness.users = userStorage.ready();
+        readiness.organizations = organizationStorage.ready();
+
+        if( userStorage.failed() ) throw new IllegalStateException( "loading of users failed" );
+        if( organizationStorage.failed() ) throw new IllegalStateException( "loading of organizations failed" );
+
+        if( !readiness.users ) throw new StorageNotReadyException( "users" );
+        if( !readiness.organizations ) throw new StorageNotReadyException( "organizations" );
+        return readiness;
+    }
+
+    public static class Readiness implements Serializable {
+        private static final long serialVersionUID = 2546016338391766237L;
+
+        public boolean users;
+        public boolean organizations;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.storage.FileStorage;
+import oap.storage.IdentifierBuilder;
+import oap.util.Stream;
+import oap.ws.security.DefaultUser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Per-organization partitions of a {@link UserStorage} in {@link StorageFormat#PARTITIONED} mode: one JSON
+ * {@link FileStorage} per organization under {@code <path>.shards/<organizationId>}, each with its own records,
+ * directory and lock. Users without an organization share one more shard.
+ * <p>
+ * Whole-store operations, loading, select, fsync, clear and close, fan out across the shards on a {@link ForkJoinPool}.
+ */
+@Slf4j
+final class UserShards implements Closeable {
+    /**
+     * directory of the users without organization, never produced by encoding an organizationId
+     */
+    private static final String NO_ORGANIZATION = "~none";
+
+    private final Path path;
+    private final ConcurrentHashMap<String, FileStorage<DefaultUser>> shards = new ConcurrentHashMap<>();
+    private final ForkJoinPool pool;
+
+    /**
+     * Opens the shards found under {@code path} in parallel.
+     *
+     * @param parallelism threads of the fan-out pool
+     */
+    UserShards( Path path, int parallelism ) {
+        this.path = path;
+        this.pool = new ForkJoinPool( parallelism, p -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( p );
+            thread.setName( "user-shards-" + thread.getPoolIndex() );
+            return thread;
+        }, null, false );
+
+        final List<Path> directories;
+        try {
+            Files.createDirectories( path );
+            try( java.util.stream.Stream<Path> files = Files.list( path ) ) {
+                directories = files.filter( Files::isDirectory ).collect( toList() );
+            }
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        pool.submit( () -> directories.parallelStream()
+            .forEach( directory -> shards.put( directory.getFileName().toString(), open( directory ) ) ) ).join();
+
+        log.info( "{} user shards opened in {}", shards.size(), path );
+    }
+
+    static Path shardsPath( Path jsonPath ) {
+        return jsonPath.resolveSibling( jsonPath.getFileName() + ".shards" );
+    }
+
+    /**
+     * Writes {@code users} as the shards of {@code path}: into {@code <path>.migrating} first, renamed to {@code path}
+     * once complete, so that an interrupted migration leaves no shards behind and is redone on the next start.
+     */
+    static void migrate( Path path, Stream<DefaultUser> users, int parallelism ) {
+        final Path migrating = path.resolveSibling( path.getFileName() + ".migrating" );
+        try {
+            if( Files.exists( migrating ) ) oap.io.Files.delete( migrating );
+            try( UserShards shards = new UserShards( migrating, parallelism ) ) {
+                users.forEach( user -> shards.store( user.organizationId, user ) );
+                shards.fsync();
+            }
+            Files.move( migrating, path, StandardCopyOption.ATOMIC_MOVE );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        log.info( "users migrated to {}", path );
+    }
+
+    Optional<DefaultUser> get( String organizationId, String id ) {
+        final FileStorage<DefaultUser> shard = shards.get( name( organizationId ) );
+        return shard != null ? shard.get( id ) : Optional.empty();
+    }
+
+    void store( String organizationId, DefaultUser user ) {
+        shard( organizationId ).store( user );
+    }
+
+    /**
+     * An emptied shard is kept: its directory is reused when the organization gets users again.
+     */
+    void delete( String organizationId, String id ) {
+        final FileStorage<DefaultUser> shard = shards.get( name( organizationId ) );
+        if( shard != null ) shard.delete( id );
+    }
+
+    /**
+     * All users, collected from the shards in parallel.
+     */
+    Stream<DefaultUser> select() {
+        final List<List<DefaultUser>> users = fanOut( shard -> shard.select().toList() );
+        return Stream.of( users.stream() ).flatMap( List::stream );
+    }
+
+    /**
+     * @return monitor guarding the changes of the shard of the organization, created with it
+     */
+    Object lock( String organizationId ) {
+        return shard( organizationId );
+    }
+
+    int size() {
+        return shards.size();
+    }
+
+    void fsync() {
+        fanOut( shard -> {
+            shard.fsync();
+            return null;
+        } );
+    }
+
+    void clear() {
+        fanOut( shard -> {
+            shard.clear();
+            return null;
+        } );
+    }
+
+    @Override
+    public void close() {
+        try {
+            fanOut( shard -> {
+                shard.close();
+                return null;
+            } );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs {@code task} on every shard in parallel, on the pool of this storage rather than the common one.
+     */
+    <R> List<R> fanOut( Function<FileStorage<DefaultUser>, R> task ) {
+        final Collection<FileStorage<DefaultUser>> snapshot = shards.values();
+        return pool.submit( () -> snapshot.parallelStream().map( task ).collect( toList() ) ).join();
+    }
+
+    private FileStorage<DefaultUser> shard( String organizationId ) {
+        return shards.computeIfAbsent( name( organizationId ), name -> open( path.resolve( name ) ) );
+    }
+
+    private static FileStorage<DefaultUser> open( Path directory ) {
+        return new FileStorage<>( directory, IdentifierBuilder.identify( DefaultUser::getEmail ).build() );
+    }
+
+    /**
+     * organizationId -> directory name: URL-encoded, dots included, so that any id is a single safe path element
+     */
+    private static String name( String organizationId ) {
+        if( organizationId == null ) return NO_ORGANIZATION;
+        try {
+            return URLEncoder.encode( organizationId, "UTF-8" ).replace( ".", "%2E" );
+        } catch( UnsupportedEncodingException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+}
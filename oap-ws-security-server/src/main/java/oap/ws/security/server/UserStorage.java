@@ -24,22 +24,684 @@
 
 package oap.ws.security.server;
 
+import lombok.extern.slf4j.Slf4j;
 import oap.storage.FileStorage;
 import oap.storage.IdentifierBuilder;
+import oap.util.Stream;
 import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
 import oap.ws.security.User;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+@Slf4j
 public class UserStorage extends FileStorage<DefaultUser> implements oap.ws.security.UserStorage {
+    static final int CHANGE_LOG_CAPACITY = 100_000;
+    private static final Role[] ROLES = Role.values();
+    private static final int USER_LOCK_STRIPES = 256;
+
+    private final ChangeLog<DefaultUser> changeLog = new ChangeLog<>( CHANGE_LOG_CAPACITY );
+    /**
+     * organizationId -> sorted ids of the users of this organization
+     */
+    private final ConcurrentHashMap<String, NavigableSet<String>> organizationUsers = new ConcurrentHashMap<>();
+    /**
+     * user id -> organizationId the user is currently indexed under
+     */
+    private final ConcurrentHashMap<String, String> userOrganizations = new ConcurrentHashMap<>();
+    /**
+     * user id -> role the user is currently counted under, absent for users without a role
+     */
+    private final ConcurrentHashMap<String, Role> userRoles = new ConcurrentHashMap<>();
+    /**
+     * organizationId -> users per {@link Role#ordinal()}, the total in the last slot.
+     * Updated atomically per organization, read without lock.
+     */
+    private final ConcurrentHashMap<String, AtomicLongArray> organizationCounts = new ConcurrentHashMap<>();
+    /**
+     * incremented by every mutation
+     */
+    private final AtomicLong version = new AtomicLong();
+    /**
+     * user id -> {@link #version} of its last change, absent for users unchanged since startup.
+     * Deleted users keep their entry until {@link #clear()}.
+     */
+    private final ConcurrentHashMap<String, Long> userVersions = new ConcurrentHashMap<>();
+    /**
+     * organizationId -> {@link #version} of the last change to its users
+     */
+    private final ConcurrentHashMap<String, Long> organizationVersions = new ConcurrentHashMap<>();
+    /**
+     * {@link #version} of the last {@link #clear()}, the version of everything not changed since
+     */
+    private volatile long clearVersion;
+
+    /**
+     * email folded by {@link #fold(String)} -> canonical id instance of the stored user
+     */
+    private final ConcurrentHashMap<String, String> canonicalIds = new ConcurrentHashMap<>();
+    /**
+     * sorted canonical ids, used for snapshot paging
+     */
+    private final ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<>();
+
+    /**
+     * binary persistence, null in {@link StorageFormat#JSON} mode
+     */
+    private final StorageJournal<DefaultUser> journal;
+    /**
+     * background loading in lazy binary mode, null otherwise
+     */
+    private final StorageLoader<DefaultUser> loader;
+    /**
+     * per-organization persistence, null unless {@link StorageFormat#PARTITIONED}
+     */
+    private final UserShards shards;
+    /**
+     * partitioned, stripes serializing the changes of a user, by folded email
+     */
+    private final Object[] userLocks = new Object[USER_LOCK_STRIPES];
+    private final List<UserChangeListener> userChangeListeners = new CopyOnWriteArrayList<>();
 
     public UserStorage( Path path ) {
+        this( path, StorageFormat.JSON, 0, 0 );
+    }
+
+    public UserStorage( Path path, StorageFormat format, long fsync, int maxSegments ) {
+        this( path, format, fsync, maxSegments, false );
+    }
+
+    public UserStorage( Path path, StorageFormat format, long fsync, int maxSegments, boolean lazy ) {
+        this( path, format, fsync, maxSegments, lazy, 0, 0 );
+    }
+
+    /**
+     * In {@link StorageFormat#BINARY} mode the users are persisted to {@code <path>.bin} instead of {@code path}.
+     * On the first start the JSON records of {@code path} are migrated and the directory is moved
+     * to {@code <path>.json-migrated}.
+     *
+     * <p>
+     * With {@code lazy} a binary storage is loaded in the background: the constructor returns after indexing
+     * the ids, users not restored yet are loaded on demand by {@link #get(String)}, {@link #store(DefaultUser)}
+     * and {@link #delete(String)}, and {@link #ready()} tells when listings are complete. Mixed-case ids are not
+     * migrated in lazy mode: the binary journal is only written after the JSON migration, which migrates them.
+     *
+     * <p>
+     * With a {@code writeBehind} window a binary storage changes memory immediately and appends to disk
+     * in coalesced, group-committed batches, see {@link StorageJournal}; {@link #sync()} waits for them.
+     *
+     * <p>
+     * In {@link StorageFormat#PARTITIONED} mode every organization has its own directory, storage and lock under
+     * {@code <path>.shards}, see {@link UserShards}, migrated from {@code path} on the first start. A change takes
+     * the lock of one user and of the shard it writes, never the storage lock, so organizations are changed
+     * concurrently; {@link #clear()} is not atomic with concurrent changes. Lookups by email are routed to the shard
+     * through the in-memory email and organization indexes, and whole-store operations run on all shards in parallel.
+     *
+     * @param fsync       ms, binary mode only
+     * @param lazy        binary mode only
+     * @param writeBehind ms, binary mode only, 0 appends every change before returning
+     * @param flushBatch  dirty users flushed before the window ends
+     */
+    public UserStorage( Path path, StorageFormat format, long fsync, int maxSegments, boolean lazy,
+                        long writeBehind, int flushBatch ) {
         super( path, IdentifierBuilder.identify( DefaultUser::getEmail ).build() );
+        for( int i = 0; i < userLocks.length; i++ ) userLocks[i] = new Object();
+
+        final long start = System.currentTimeMillis();
+        boolean migrateJson = false;
+        Map<String, ByteBuffer> records = Collections.emptyMap();
+        if( format == StorageFormat.BINARY ) {
+            final Path binaryPath = StorageJournal.binaryPath( path );
+            migrateJson = !StorageJournal.exists( binaryPath );
+            journal = new StorageJournal<>( binaryPath, "storage.users", StorageCodecs.USER, DefaultUser::getEmail, this,
+                () -> ready() ? select().toList() : null, fsync, maxSegments, writeBehind, flushBatch );
+            if( !migrateJson ) records = journal.scan();
+        } else journal = null;
+
+        if( lazy && journal != null && !migrateJson ) {
+            loader = new StorageLoader<>( "user-storage", journal, records, Comparator.naturalOrder(), this, this::restore );
+        } else {
+            loader = null;
+            if( !records.isEmpty() ) super.store( journal.decode( records.values() ) );
+
+            final int migratedIds = migrateMixedCaseIds();
+            if( journal != null && ( migrateJson || migratedIds > 0 ) ) {
+                journal.compact( select().toList() );
+                if( migrateJson ) StorageJournal.retire( path );
+            }
+        }
+
+        if( format == StorageFormat.PARTITIONED ) {
+            final Path shardsPath = UserShards.shardsPath( path );
+            final int parallelism = Runtime.getRuntime().availableProcessors();
+            if( !Files.isDirectory( shardsPath ) ) UserShards.migrate( shardsPath, super.select(), parallelism );
+            // JSON records are also left behind by a migration interrupted after the shards were complete
+            if( super.select().findAny().isPresent() ) {
+                StorageJournal.retire( path );
+                super.clear();
+            }
+            this.shards = new UserShards( shardsPath, parallelism );
+        } else shards = null;
+
+        select().forEach( user -> {
+            canonicalIds.put( user.email, user.email );
+            index( user );
+        } );
+
+        if( loader != null ) {
+            log.info( "{} users indexed, loading in background", records.size() );
+            loader.start();
+        } else log.info( "{} users loaded ({}) in {} ms", canonicalIds.size(), format, System.currentTimeMillis() - start );
+    }
+
+    /**
+     * @return false while a lazy storage is still loading: {@link #select()} and
+     * {@link #selectByOrganization(String)} may miss users
+     */
+    public boolean ready() {
+        return loader == null || loader.ready();
+    }
+
+    /**
+     * @return true if the background loading of a lazy storage failed, it will not become {@link #ready()}
+     */
+    public boolean failed() {
+        return loader != null && loader.failed();
     }
 
     @Override
     public Optional<User> getByEmail( String email ) {
-        return get( email.toLowerCase() ).map( Converters::toUserDTO );
+        return get( email ).map( Converters::toUserDTO );
+    }
+
+    /**
+     * @param id email in any case
+     */
+    @Override
+    public Optional<DefaultUser> get( String id ) {
+        final long start = System.nanoTime();
+        try {
+            final String canonical = canonicalIds.get( fold( id ) );
+            if( canonical != null ) return record( canonical );
+
+            return loader != null && !loader.ready() ? Optional.ofNullable( loadPending( id ) ) : Optional.empty();
+        } finally {
+            SecurityMetrics.USERS_GET.recordSince( start );
+        }
+    }
+
+    /**
+     * Users of the organization, resolved through the organizationId index
+     * without scanning the whole storage.
+     */
+    public Stream<DefaultUser> selectByOrganization( String organizationId ) {
+        return selectByOrganization( organizationId, Optional.empty(), Optional.empty() );
+    }
+
+    /**
+     * Users of the organization ordered by id, starting after {@code cursor}.
+     */
+    public Stream<DefaultUser> selectByOrganization( String organizationId, Optional<String> cursor, Optional<Integer> limit ) {
+        final NavigableSet<String> ids = organizationUsers.get( organizationId );
+        if( ids == null ) return Stream.empty();
+
+        return Stream.of( Cursors.page( ids, cursor, limit ) )
+            .map( this::record )
+            .filter( Optional::isPresent )
+            .map( Optional::get );
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * epoch of the change log, versions of different epochs are unrelated
+     */
+    public String epoch() {
+        return changeLog.epoch;
+    }
+
+    /**
+     * @param id email in any case, or the canonical email of a deleted user
+     * @return storage version of the last change to the user, deletes included
+     */
+    public long userVersion( String id ) {
+        final String canonical = canonicalIds.get( fold( id ) );
+        return userVersions.getOrDefault( canonical != null ? canonical : fold( id ), clearVersion );
+    }
+
+    /**
+     * @param id email in any case
+     * @return role of the stored user, null if absent
+     */
+    public Role userRole( String id ) {
+        final String canonical = canonicalIds.get( fold( id ) );
+        return canonical != null ? userRoles.get( canonical ) : null;
+    }
+
+    /**
+     * @param id email in any case
+     * @return organizationId of the stored user, null if absent
+     */
+    public String userOrganization( String id ) {
+        final String canonical = canonicalIds.get( fold( id ) );
+        return canonical != null ? userOrganizations.get( canonical ) : null;
+    }
+
+    /**
+     * @return storage version of the last change to the users of the organization
+     */
+    public long organizationVersion( String organizationId ) {
+        return organizationVersions.getOrDefault( organizationId, clearVersion );
+    }
+
+    /**
+     * Users of the organization whose canonical email starts with {@code prefix}, ordered by email.
+     *
+     * @param prefix in any case
+     */
+    public Stream<DefaultUser> searchByOrganization( String organizationId, String prefix, int limit ) {
+        final NavigableSet<String> ids = organizationUsers.get( organizationId );
+        if( ids == null ) return Stream.empty();
+
+        return Stream.of( Cursors.prefix( ids, fold( prefix ), limit ) )
+            .map( this::record )
+            .filter( Optional::isPresent )
+            .map( Optional::get );
+    }
+
+    /**
+     * @return user count and role breakdown, maintained by every change instead of counted
+     */
+    public OrganizationStats organizationStats( String organizationId ) {
+        final OrganizationStats stats = new OrganizationStats( organizationId );
+
+        final AtomicLongArray counts = organizationCounts.get( organizationId );
+        if( counts != null ) {
+            for( Role role : ROLES ) stats.roles.put( role, counts.get( role.ordinal() ) );
+            stats.users = counts.get( ROLES.length );
+        }
+        return stats;
+    }
+
+    /**
+     * Changes after {@code sequence} of the change log {@code epoch}, or a page of a snapshot.
+     *
+     * @param after {@link ChangeBatch#after} of the previous snapshot page
+     */
+    public ChangeBatch<DefaultUser> changes( String epoch, long sequence, String after, int limit ) {
+        return changeLog.since( epoch, sequence, after, limit, ids, this::record );
+    }
+
+    /**
+     * @param listener called after every logged change
+     */
+    public void onChange( Runnable listener ) {
+        changeLog.addListener( listener );
+    }
+
+    /**
+     * @param listener called under the storage lock, or partitioned the lock of the user, when an existing user
+     *                 is changed or deleted
+     */
+    public void onUserChange( UserChangeListener listener ) {
+        userChangeListeners.add( listener );
+    }
+
+    /**
+     * Stores the user under the canonical, lower-cased email.
+     */
+    @Override
+    public void store( DefaultUser user ) {
+        final long start = System.nanoTime();
+
+        if( shards != null ) storeInShard( user );
+        else synchronized( this ) {
+            canonicalize( user );
+            super.store( user );
+            version.incrementAndGet();
+
+            index( user );
+            changeLog.append( Change.Type.STORE, user.getEmail(), user );
+            if( journal != null ) journal.store( user );
+        }
+
+        SecurityMetrics.USERS_STORE.recordSince( start );
+    }
+
+    /**
+     * Stores the batch with one grouped storage write. Partitioned, every user is stored in its shard.
+     */
+    @Override
+    public void store( Collection<DefaultUser> users ) {
+        final long start = System.nanoTime();
+
+        if( shards != null ) users.forEach( this::storeInShard );
+        else synchronized( this ) {
+            users.forEach( this::canonicalize );
+            super.store( users );
+            version.incrementAndGet();
+
+            for( DefaultUser user : users ) {
+                index( user );
+                changeLog.append( Change.Type.STORE, user.getEmail(), user );
+                if( journal != null ) journal.store( user );
+            }
+        }
+
+        SecurityMetrics.USERS_STORE.recordSince( start );
+    }
+
+    /**
+     * @param id email in any case
+     */
+    @Override
+    public void delete( String id ) {
+        final long start = System.nanoTime();
+
+        if( shards != null ) deleteFromShard( id );
+        else synchronized( this ) {
+            loadPending( id );
+
+            final String canonical = canonicalIds.remove( fold( id ) );
+            if( canonical == null ) return;
+
+            super.delete( canonical );
+            version.incrementAndGet();
+
+            unindex( canonical );
+            changeLog.append( Change.Type.DELETE, canonical, null );
+            if( journal != null ) journal.delete( canonical );
+        }
+
+        SecurityMetrics.USERS_DELETE.recordSince( start );
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        if( shards != null ) shards.clear();
+        version.incrementAndGet();
+
+        canonicalIds.clear();
+        ids.clear();
+        organizationUsers.clear();
+        userOrganizations.clear();
+        userRoles.clear();
+        organizationCounts.clear();
+        userVersions.clear();
+        organizationVersions.clear();
+        clearVersion = version.get();
+        if( loader != null ) loader.clear();
+        if( journal != null ) journal.compact( Collections.emptyList() );
+    }
+
+    /**
+     * Durability barrier: returns once every change made before the call is on disk.
+     * In JSON mode the records are written by {@link #fsync()}.
+     */
+    public void sync() {
+        if( journal != null ) journal.sync();
+        else fsync();
+    }
+
+    /**
+     * In binary mode the {@link StorageJournal} is the persistence, the JSON directory is not written.
+     * Partitioned, every shard writes its own directory, in parallel.
+     */
+    @Override
+    public synchronized void fsync() {
+        if( shards != null ) shards.fsync();
+        else if( journal == null ) super.fsync();
+    }
+
+    @Override
+    public synchronized void close() {
+        if( loader != null ) loader.stop();
+        super.close();
+
+        if( journal != null ) journal.close();
+        if( shards != null ) shards.close();
+    }
+
+    /**
+     * Partitioned, all users shard by shard.
+     */
+    @Override
+    public Stream<DefaultUser> select() {
+        return shards != null ? shards.select() : super.select();
+    }
+
+    /**
+     * @param canonical canonical email of a stored user
+     */
+    private Optional<DefaultUser> record( String canonical ) {
+        return shards != null ? shards.get( userOrganizations.get( canonical ), canonical ) : super.get( canonical );
+    }
+
+    /**
+     * Partitioned: changes of a user are serialized by its {@link #userLocks stripe}, which keeps its organization
+     * stable, then take the lock of the shard written. A user moved to another organization is stored in the new
+     * shard and indexed there before it leaves the previous shard, so that concurrent lookups always find it.
+     */
+    private void storeInShard( DefaultUser user ) {
+        synchronized( userLock( user.email ) ) {
+            final boolean existed = canonicalIds.containsKey( fold( user.email ) );
+            final String previous;
+            synchronized( shards.lock( user.organizationId ) ) {
+                canonicalize( user );
+                previous = userOrganizations.get( user.email );
+                shards.store( user.organizationId, user );
+                version.incrementAndGet();
+
+                index( user );
+                changeLog.append( Change.Type.STORE, user.getEmail(), user );
+            }
+
+            if( existed && !Objects.equals( previous, user.organizationId ) )
+                synchronized( shards.lock( previous ) ) {
+                    shards.delete( previous, user.email );
+                }
+        }
+    }
+
+    private void deleteFromShard( String id ) {
+        synchronized( userLock( id ) ) {
+            final String canonical = canonicalIds.get( fold( id ) );
+            if( canonical == null ) return;
+
+            final String organizationId = userOrganizations.get( canonical );
+            synchronized( shards.lock( organizationId ) ) {
+                canonicalIds.remove( fold( id ) );
+                shards.delete( organizationId, canonical );
+                version.incrementAndGet();
+
+                unindex( canonical );
+                changeLog.append( Change.Type.DELETE, canonical, null );
+            }
+        }
+    }
+
+    /**
+     * @param email in any case
+     */
+    private Object userLock( String email ) {
+        final int hash = fold( email ).hashCode();
+        return userLocks[( hash ^ ( hash >>> 16 ) ) & ( userLocks.length - 1 )];
+    }
+
+    /**
+     * Case folding is done once, here: the email is replaced by the instance already held by
+     * the index, or by its lower-cased form for a new user.
+     */
+    private void canonicalize( DefaultUser user ) {
+        final String folded = fold( user.email );
+        loadPending( folded );
+
+        final String existing = canonicalIds.get( folded );
+        if( existing != null ) user.email = existing;
+        else {
+            user.email = folded;
+            canonicalIds.put( folded, folded );
+        }
+    }
+
+    /**
+     * Locale independent lower case, the same instance for an already canonical email.
+     */
+    static String fold( String email ) {
+        return email.toLowerCase( Locale.ROOT );
+    }
+
+    /**
+     * Restores a user still pending in a lazy storage, before it is read or overwritten.
+     */
+    private DefaultUser loadPending( String id ) {
+        if( loader == null ) return null;
+        synchronized( this ) {
+            return loader.load( fold( id ) );
+        }
+    }
+
+    /**
+     * a user decoded by the {@link StorageLoader}
+     */
+    private void restore( DefaultUser user ) {
+        super.store( user );
+
+        canonicalIds.put( user.email, user.email );
+        index( user );
+    }
+
+    /**
+     * Records stored before emails were canonicalized may have mixed-case ids; they are re-stored
+     * lower-cased. When both forms exist the lower-cased record wins.
+     */
+    private int migrateMixedCaseIds() {
+        final List<DefaultUser> mixedCase = select()
+            .filter( user -> !user.email.equals( fold( user.email ) ) )
+            .toList();
+
+        for( DefaultUser user : mixedCase ) {
+            final String id = user.email;
+            final String canonical = fold( id );
+
+            super.delete( id );
+            if( super.get( canonical ).isPresent() )
+                log.warn( "user [{}] dropped, [{}] already exists", id, canonical );
+            else {
+                user.email = canonical;
+                super.store( user );
+            }
+        }
+
+        if( !mixedCase.isEmpty() ) log.info( "{} mixed-case user ids migrated", mixedCase.size() );
+        return mixedCase.size();
+    }
+
+    private void index( DefaultUser user ) {
+        final String id = user.getEmail();
+        final String organizationId = user.organizationId;
+
+        ids.add( id );
+
+        final String previous = organizationId != null
+            ? userOrganizations.put( id, organizationId )
+            : userOrganizations.remove( id );
+
+        if( previous != null && !previous.equals( organizationId ) ) removeFromOrganization( previous, id );
+
+        if( organizationId != null ) addToOrganization( organizationId, id );
+
+        final Role previousRole = user.role != null ? userRoles.put( id, user.role ) : userRoles.remove( id );
+        if( organizationId != null ) count( organizationId, user.role, 1 );
+        if( previous != null ) count( previous, previousRole, -1 );
+
+        final long version = this.version.get();
+        if( version > 0 ) {
+            userVersions.merge( id, version, Long::max );
+            if( previous != null ) organizationVersions.merge( previous, version, Long::max );
+            if( organizationId != null ) organizationVersions.merge( organizationId, version, Long::max );
+        }
+
+        if( previous != null || previousRole != null ) fireUserChanged( id, previousRole, previous, user );
+    }
+
+    private void unindex( String id ) {
+        ids.remove( id );
+        final String organizationId = userOrganizations.remove( id );
+
+        if( organizationId != null ) removeFromOrganization( organizationId, id );
+
+        final Role role = userRoles.remove( id );
+        if( organizationId != null ) count( organizationId, role, -1 );
+
+        final long version = this.version.get();
+        userVersions.merge( id, version, Long::max );
+        if( organizationId != null ) organizationVersions.merge( organizationId, version, Long::max );
+
+        fireUserChanged( id, role, organizationId, null );
+    }
+
+    private void fireUserChanged( String id, Role previousRole, String previousOrganizationId, DefaultUser user ) {
+        for( UserChangeListener listener : userChangeListeners )
+            try {
+                listener.changed( id, previousRole, previousOrganizationId, user );
+            } catch( Exception e ) {
+                log.error( "user change listener failed for [" + id + "]", e );
+            }
+    }
+
+    /**
+     * Atomic per organization: partitioned, users of an organization may be counted in and out concurrently.
+     */
+    private void count( String organizationId, Role role, int delta ) {
+        organizationCounts.compute( organizationId, ( oid, counts ) -> {
+            if( counts == null ) counts = new AtomicLongArray( ROLES.length + 1 );
+            if( role != null ) counts.addAndGet( role.ordinal(), delta );
+            return counts.addAndGet( ROLES.length, delta ) == 0 ? null : counts;
+        } );
+    }
+
+    private void addToOrganization( String organizationId, String id ) {
+        organizationUsers.compute( organizationId, ( oid, ids ) -> {
+            if( ids == null ) ids = new ConcurrentSkipListSet<>();
+            ids.add( id );
+            return ids;
+        } );
+    }
+
+    private void removeFromOrganization( String organizationId, String id ) {
+        organizationUsers.computeIfPresent( organizationId, ( oid, ids ) -> {
+            ids.remove( id );
+            return ids.isEmpty() ? null : ids;
+        } );
+    }
+
+    public interface UserChangeListener {
+        /**
+         * @param id                     canonical email
+         * @param previousRole           role before the change, null if none
+         * @param previousOrganizationId organization before the change, null if none
+         * @param user                   the stored user, null on delete
+         */
+        void changed( String id, Role previousRole, String previousOrganizationId, DefaultUser user );
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.PasswordHasher;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ApiKeyStorageTest extends AbstractTest {
+    private ApiKeyStorage apiKeyStorage;
+    private UserStorage userStorage;
+    private ServerAuthService authService;
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        apiKeyStorage = new ApiKeyStorage( Env.tmpPath( "api-keys" ) );
+        userStorage = new UserStorage( Env.tmpPath( "users" ) );
+        authService = new ServerAuthService( userStorage, new PasswordHasher( "test" ), new ShardedTokenStore( 60, 1, 100, 1000 ),
+            SignedTokens.disabled(), AuditLog.disabled(), apiKeyStorage );
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        apiKeyStorage.close();
+        userStorage.close();
+    }
+
+    @Test
+    public void testShouldAuthenticateByKeyUntilRevoked() {
+        final ApiKey created = apiKeyStorage.create( "12345", Role.ORGANIZATION_ADMIN, "billing", "admin@example.com" );
+        assertTrue( created.key.startsWith( ApiKeyStorage.PREFIX ) );
+        assertNull( created.digest );
+
+        final Token token = authService.getToken( created.key ).get();
+        assertEquals( token.user.getRole(), Role.ORGANIZATION_ADMIN );
+        assertEquals( token.user.getOrganization(), "12345" );
+
+        assertFalse( authService.getToken( created.key + "x" ).isPresent() );
+
+        final ApiKey listed = apiKeyStorage.selectByOrganization( "12345" ).findFirst().get();
+        assertEquals( listed.id, created.id );
+        assertNull( listed.key );
+        assertNull( listed.digest );
+        assertEquals( apiKeyStorage.selectByOrganization( "98765" ).count(), 0 );
+
+        assertFalse( apiKeyStorage.revoke( "98765", created.id ) );
+        assertTrue( apiKeyStorage.revoke( "12345", created.id ) );
+        assertFalse( authService.getToken( created.key ).isPresent() );
+    }
+
+    @Test
+    public void testShouldRevokeKeysOfOrganization() {
+        final ApiKey first = apiKeyStorage.create( "12345", null, "first", "admin@example.com" );
+        final ApiKey other = apiKeyStorage.create( "98765", null, "other", "admin@example.com" );
+
+        assertEquals( authService.getToken( first.key ).get().user.getRole(), Role.USER );
+
+        apiKeyStorage.revokeByOrganization( "12345" );
+
+        assertFalse( authService.getToken( first.key ).isPresent() );
+        assertTrue( authService.getToken( other.key ).isPresent() );
+    }
+}
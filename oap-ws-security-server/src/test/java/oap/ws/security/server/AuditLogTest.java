@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import oap.json.Binder;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class AuditLogTest extends AbstractTest {
+    @Test
+    public void testShouldWriteEventsFromConcurrentPublishers() throws Exception {
+        final Path path = Env.tmpPath( "audit" );
+        final AuditLog auditLog = new AuditLog( path, 1 << 16, 10, 60, 1 << 20 );
+        auditLog.start();
+
+        final List<Thread> threads = new ArrayList<>();
+        for( int t = 0; t < 4; t++ ) {
+            final String actor = "admin" + t + "@example.com";
+            final Thread thread = new Thread( () -> {
+                for( int i = 0; i < 10_000; i++ )
+                    assertTrue( auditLog.publish( AuditEvent.Type.USER_STORE, actor, "12345", "user" + i + "@example.com" ) );
+            } );
+            thread.start();
+            threads.add( thread );
+        }
+        for( Thread thread : threads ) thread.join();
+        auditLog.stop();
+
+        final List<AuditEvent> events = read( path );
+        assertEquals( events.size(), 40_000 );
+        assertTrue( files( path ) > 1, "rotated by size" );
+    }
+
+    @Test
+    public void testShouldDropAndRecordGapWhenFull() throws IOException {
+        final Path path = Env.tmpPath( "audit-full" );
+        final AuditLog auditLog = new AuditLog( path, 4, 60_000, 60, 1 << 20 );
+        auditLog.start();
+
+        for( int i = 0; i < 4; i++ ) assertTrue( auditLog.publish( AuditEvent.Type.LOGIN, "a@example.com", null, null ) );
+        for( int i = 0; i < 6; i++ ) assertFalse( auditLog.publish( AuditEvent.Type.LOGIN, "a@example.com", null, null ) );
+        auditLog.stop();
+
+        final List<AuditEvent> events = read( path );
+        assertEquals( events.size(), 5 );
+        assertEquals( events.get( 4 ).type, AuditEvent.Type.DROPPED );
+        assertEquals( events.get( 4 ).count, 6 );
+    }
+
+    private static long files( Path path ) throws IOException {
+        try( Stream<Path> files = Files.list( path ) ) {
+            return files.count();
+        }
+    }
+
+    static List<AuditEvent> read( Path path ) throws IOException {
+        final List<AuditEvent> events = new ArrayList<>();
+        try( Stream<Path> files = Files.list( path ).sorted() ) {
+            for( Path file : ( Iterable<Path> ) files::iterator )
+                try( BufferedReader reader = new BufferedReader( new InputStreamReader(
+                    new GZIPInputStream( Files.newInputStream( file ) ), UTF_8 ) ) ) {
+                    String line;
+                    while( ( line = reader.readLine() ) != null )
+                        events.add( Binder.json.unmarshal( AuditEvent.class, line ) );
+                }
+        }
+        return events;
+    }
+}
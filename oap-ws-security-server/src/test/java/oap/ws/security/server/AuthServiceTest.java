@@ -39,6 +39,7 @@ import org.testng.annotations.Test;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 public class AuthServiceTest extends AbstractTest {
 
@@ -94,4 +95,67 @@ public class AuthServiceTest extends AbstractTest {
 
         assertFalse( authService.getToken( id ).isPresent() );
     }
+
+    @Test
+    public void testServerAuthServiceShouldIssueValidateAndInvalidateTokens() {
+        final DefaultUser user = new DefaultUser();
+        user.email = "test@example.com";
+        user.password = Hash.sha256( "test", "12345" );
+        user.role = Role.ADMIN;
+
+        userStorage.store( user );
+
+        final ServerAuthService serverAuthService = new ServerAuthService( userStorage, new PasswordHasher( "test" ),
+            new ShardedTokenStore( 1, 4, 100, 1000 ) );
+
+        assertFalse( serverAuthService.generateToken( user.email, "wrong" ).isPresent() );
+
+        final Token token = serverAuthService.generateToken( "Test@example.com", "12345" ).get();
+        assertEquals( token.user.getEmail(), "test@example.com" );
+        assertEquals( serverAuthService.getToken( token.id ).get().user.getRole(), Role.ADMIN );
+
+        serverAuthService.invalidateUser( user.email );
+
+        assertFalse( serverAuthService.getToken( token.id ).isPresent() );
+    }
+
+    @Test
+    public void testServerAuthServiceShouldRevokeTokensOfChangedUsers() {
+        final DefaultUser user = new DefaultUser();
+        user.email = "revoke@example.com";
+        user.password = Hash.sha256( "test", "12345" );
+        user.role = Role.ORGANIZATION_ADMIN;
+        user.organizationId = "12345";
+
+        userStorage.store( user );
+
+        final ShardedTokenStore tokenStore = new ShardedTokenStore( 1, 4, 100, 1000 );
+        final ServerAuthService serverAuthService = new ServerAuthService( userStorage, new PasswordHasher( "test" ), tokenStore );
+
+        final Token token = serverAuthService.generateToken( user.email, "12345" ).get();
+
+        user.role = Role.ORGANIZATION_ADMIN;
+        userStorage.store( user );
+        assertTrue( serverAuthService.getToken( token.id ).isPresent() );
+
+        user.role = Role.USER;
+        userStorage.store( user );
+        assertFalse( serverAuthService.getToken( token.id ).isPresent() );
+
+        final Token downgraded = serverAuthService.generateToken( user.email, "12345" ).get();
+        assertEquals( downgraded.user.getRole(), Role.USER );
+
+        user.organizationId = "54321";
+        userStorage.store( user );
+        assertFalse( serverAuthService.getToken( downgraded.id ).isPresent() );
+
+        final Token moved = serverAuthService.generateToken( user.email, "12345" ).get();
+        assertEquals( serverAuthService.revokeOrganization( "54321" ), 1 );
+        assertFalse( serverAuthService.getToken( moved.id ).isPresent() );
+
+        final Token deleted = serverAuthService.generateToken( user.email, "12345" ).get();
+        userStorage.delete( "Revoke@example.com" );
+        assertFalse( serverAuthService.getToken( deleted.id ).isPresent() );
+        assertEquals( tokenStore.size(), 0 );
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.ws.security.PasswordHasher;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class BoundedPasswordHasherTest extends AbstractTest {
+
+    @Test
+    public void testShouldHashLikePasswordHasher() {
+        final BoundedPasswordHasher hasher = new BoundedPasswordHasher( "test", 2, 10, 1 );
+        try {
+            assertEquals( hasher.hashPassword( "12345" ), new PasswordHasher( "test" ).hashPassword( "12345" ) );
+            assertEquals( hasher.hashed(), 1 );
+        } finally {
+            hasher.stop();
+        }
+    }
+
+    @Test
+    public void testShouldRejectWhenQueueIsFull() throws InterruptedException {
+        final BoundedPasswordHasher hasher = new BoundedPasswordHasher( "test", 1, 1, 5 );
+        final ExecutorService clients = Executors.newFixedThreadPool( 2 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        try {
+            clients.submit( () -> hasher.execute( () -> release.await( 10, SECONDS ) ) );
+            clients.submit( () -> hasher.execute( () -> release.await( 10, SECONDS ) ) );
+
+            for( int i = 0; i < 100 && hasher.queueDepth() < 1; i++ ) Thread.sleep( 10 );
+            assertEquals( hasher.queueDepth(), 1 );
+
+            try {
+                hasher.hashPassword( "12345" );
+                fail( "saturated pool must reject" );
+            } catch( HashingOverloadedException e ) {
+                assertEquals( e.retryAfter, 5 );
+            }
+            assertEquals( hasher.rejected(), 1 );
+        } finally {
+            release.countDown();
+            clients.shutdown();
+            assertTrue( clients.awaitTermination( 10, SECONDS ) );
+            hasher.stop();
+        }
+    }
+
+    @Test
+    public void testShouldLeaveThreadsToLoginsDuringBulkHashing() throws Exception {
+        final BoundedPasswordHasher hasher = new BoundedPasswordHasher( "test", 2, 4, 1 );
+        final ExecutorService importer = Executors.newSingleThreadExecutor();
+        try {
+            final List<String> passwords = new ArrayList<>();
+            for( int i = 0; i < 100 * BoundedPasswordHasher.BULK_CHUNK; i++ ) passwords.add( "password" + i );
+            final Future<List<String>> bulk = importer.submit( () -> hasher.hashPasswords( passwords ) );
+
+            for( int i = 0; i < 50 && !bulk.isDone(); i++ )
+                assertEquals( hasher.hashPassword( "12345" ), new PasswordHasher( "test" ).hashPassword( "12345" ) );
+            assertEquals( hasher.rejected(), 0 );
+
+            final List<String> hashes = bulk.get( 60, SECONDS );
+            assertEquals( hashes.size(), passwords.size() );
+            assertEquals( hashes.get( 17 ), new PasswordHasher( "test" ).hashPassword( "password17" ) );
+        } finally {
+            importer.shutdownNow();
+            hasher.stop();
+        }
+    }
+}
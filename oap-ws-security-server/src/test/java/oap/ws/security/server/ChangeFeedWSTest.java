@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ChangeFeedWSTest extends AbstractTest {
+    private UserStorage userStorage;
+    private OrganizationStorage organizationStorage;
+    private ChangeFeedWS changeFeedWS;
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        userStorage = new UserStorage( Env.tmpPath( "users" ) );
+        organizationStorage = new OrganizationStorage( Env.tmpPath( "organizations" ) );
+        changeFeedWS = new ChangeFeedWS( userStorage, organizationStorage );
+
+        organizationStorage.store( new Organization( "12345" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "test@example.com" ) );
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        userStorage.close();
+        organizationStorage.close();
+    }
+
+    @Test
+    public void testShouldReturnOnlyChangesSincePosition() throws InterruptedException {
+        final SecurityChanges first = changeFeedWS.changes( Optional.empty(), Optional.empty(), Optional.empty() );
+        assertTrue( first.users.snapshot );
+        assertEquals( first.users.changes.size(), 1 );
+        assertEquals( first.organizations.changes.size(), 1 );
+
+        userStorage.delete( "test@example.com" );
+
+        final SecurityChanges second = changeFeedWS.changes( Optional.of( first.next ), Optional.empty(), Optional.empty() );
+        assertFalse( second.users.snapshot );
+        assertEquals( second.users.changes.size(), 1 );
+        assertEquals( second.users.changes.get( 0 ).type, Change.Type.DELETE );
+        assertTrue( second.organizations.changes.isEmpty() );
+
+        assertTrue( changeFeedWS.changes( Optional.of( second.next ), Optional.empty(), Optional.empty() ).isEmpty() );
+    }
+
+    @Test
+    public void testShouldPageSnapshotByLimit() throws InterruptedException {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "z@example.com" ) );
+
+        final SecurityChanges first = changeFeedWS.changes( Optional.empty(), Optional.of( 2 ), Optional.empty() );
+        assertTrue( first.users.snapshot );
+        assertEquals( first.users.changes.size(), 2 );
+        assertEquals( first.users.changes.get( 0 ).id, "a@example.com" );
+        assertEquals( first.users.after, "test@example.com" );
+        assertNull( first.organizations.after );
+
+        final SecurityChanges second = changeFeedWS.changes( Optional.of( first.next ), Optional.of( 2 ), Optional.empty() );
+        assertTrue( second.users.snapshot );
+        assertEquals( second.users.changes.size(), 1 );
+        assertEquals( second.users.changes.get( 0 ).id, "z@example.com" );
+        assertNull( second.users.after );
+
+        userStorage.delete( "a@example.com" );
+
+        final SecurityChanges third = changeFeedWS.changes( Optional.of( second.next ), Optional.of( 2 ), Optional.empty() );
+        assertFalse( third.users.snapshot );
+        assertEquals( third.users.changes.size(), 1 );
+        assertEquals( third.users.changes.get( 0 ).type, Change.Type.DELETE );
+    }
+
+    @Test
+    public void testShouldReadOnlyRecordsOfTheSnapshotPage() {
+        final ChangeLog<String> changeLog = new ChangeLog<>( 16 );
+        final NavigableSet<String> ids = new TreeSet<>();
+        for( int i = 0; i < 10_000; i++ ) ids.add( String.format( "%05d", i ) );
+        final AtomicInteger reads = new AtomicInteger();
+
+        ChangeBatch<String> page = null;
+        int pages = 0;
+        do {
+            page = changeLog.since( page != null ? page.epoch : null, page != null ? page.lastSequence : 0,
+                page != null ? page.after : null, 100, ids, id -> {
+                    reads.incrementAndGet();
+                    return Optional.of( id );
+                } );
+            assertEquals( page.changes.get( 0 ).id, String.format( "%05d", pages * 100 ) );
+            pages++;
+        } while( page.after != null );
+
+        assertEquals( pages, 100 );
+        assertEquals( reads.get(), 10_000 );
+    }
+
+    @Test
+    public void testShouldHoldEmptyResponseUntilChange() throws Exception {
+        final String next = changeFeedWS.changes( Optional.empty(), Optional.empty(), Optional.empty() ).next;
+
+        final CompletableFuture<SecurityChanges> poll = CompletableFuture.supplyAsync( () -> {
+            try {
+                return changeFeedWS.changes( Optional.of( next ), Optional.empty(), Optional.of( 10_000L ) );
+            } catch( InterruptedException e ) {
+                throw new IllegalStateException( e );
+            }
+        } );
+
+        Thread.sleep( 100 );
+        assertFalse( poll.isDone() );
+
+        organizationStorage.store( new Organization( "98765" ) );
+
+        final SecurityChanges changes = poll.get();
+        assertEquals( changes.organizations.changes.size(), 1 );
+        assertEquals( changes.organizations.changes.get( 0 ).id, "98765" );
+    }
+}
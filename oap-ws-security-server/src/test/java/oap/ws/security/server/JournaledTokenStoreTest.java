@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static oap.ws.security.server.ShardedTokenStoreTest.token;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class JournaledTokenStoreTest extends AbstractTest {
+
+    @AfterMethod
+    public void resetTime() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void testShouldRestoreTokensAfterRestart() {
+        final Path path = Env.tmpPath( "sessions-restart" );
+
+        final JournaledTokenStore store = store( path );
+        store.put( token( "1", "a@example.com" ) );
+        store.put( token( "2", "b@example.com" ) );
+        store.put( token( "3", "a@example.com" ) );
+        store.remove( "2" );
+        store.stop();
+
+        final JournaledTokenStore restarted = store( path );
+        try {
+            assertEquals( restarted.size(), 2 );
+            assertEquals( restarted.get( "1" ).get().user.getEmail(), "a@example.com" );
+            assertFalse( restarted.get( "2" ).isPresent() );
+
+            restarted.removeByUser( "a@example.com" );
+        } finally {
+            restarted.stop();
+        }
+
+        final JournaledTokenStore again = store( path );
+        try {
+            assertEquals( again.size(), 0 );
+        } finally {
+            again.stop();
+        }
+    }
+
+    @Test
+    public void testShouldCompactJournal() {
+        final Path path = Env.tmpPath( "sessions-compact" );
+
+        final JournaledTokenStore store = store( path );
+        for( int i = 0; i < 100; i++ ) store.put( token( String.valueOf( i ), "a@example.com" ) );
+        for( int i = 0; i < 90; i++ ) store.remove( String.valueOf( i ) );
+
+        store.compact();
+        store.put( token( "new", "b@example.com" ) );
+        store.stop();
+
+        final JournaledTokenStore restarted = store( path );
+        try {
+            assertEquals( restarted.size(), 11 );
+            assertTrue( restarted.get( "95" ).isPresent() );
+            assertTrue( restarted.get( "new" ).isPresent() );
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    public void testShouldNotRestoreExpiredTokens() {
+        final Path path = Env.tmpPath( "sessions-expired" );
+
+        final JournaledTokenStore store = store( path );
+        store.put( token( "1", "a@example.com" ) );
+        store.stop();
+
+        DateTimeUtils.setCurrentMillisFixed( System.currentTimeMillis() + MINUTES.toMillis( 2 ) );
+
+        final JournaledTokenStore restarted = store( path );
+        try {
+            assertEquals( restarted.size(), 0 );
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    public void testShouldRestoreTokensAccessedAfterExpirationSinceCreation() {
+        final Path path = Env.tmpPath( "sessions-sliding" );
+        final long now = System.currentTimeMillis();
+
+        DateTimeUtils.setCurrentMillisFixed( now - 90_000 );
+        final JournaledTokenStore store = store( path );
+        store.put( token( "1", "a@example.com" ) );
+
+        DateTimeUtils.setCurrentMillisFixed( now - 40_000 );
+        assertTrue( store.get( "1" ).isPresent() );
+        DateTimeUtils.setCurrentMillisFixed( now );
+        assertTrue( store.get( "1" ).isPresent() );
+        store.stop();
+
+        DateTimeUtils.setCurrentMillisFixed( now + 10_000 );
+        final JournaledTokenStore restarted = store( path );
+        try {
+            assertTrue( restarted.get( "1" ).isPresent() );
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    private static JournaledTokenStore store( Path path ) {
+        return new JournaledTokenStore( new ShardedTokenStore( 1, 4, 1000, 1000 ), path, 1024, 1000, 4 );
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.util.Stream;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest extends AbstractTest {
+    @Test
+    public void testShouldMapValuesToBucketsWithBoundedError() {
+        for( long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123_456_789, Long.MAX_VALUE } ) {
+            final long highest = LatencyHistogram.highestValue( LatencyHistogram.index( value ) );
+
+            assertTrue( highest >= value, value + " -> " + highest );
+            assertTrue( highest - value <= value / LatencyHistogram.SUB_BUCKETS, value + " -> " + highest );
+        }
+    }
+
+    @Test
+    public void testShouldComputePercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for( int i = 1; i <= 1000; i++ ) histogram.record( i * 1000L );
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals( snapshot.count, 1000 );
+        assertEquals( snapshot.mean, 500.5, 0.1 );
+        assertEquals( snapshot.p50, 500, 500 / LatencyHistogram.SUB_BUCKETS );
+        assertEquals( snapshot.p99, 990, 990 / LatencyHistogram.SUB_BUCKETS );
+        assertEquals( snapshot.max, 1000.0 );
+    }
+
+    @Test
+    public void testShouldTimeStreamUntilDrained() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Stream<Integer> stream = SecurityMetrics.timed( histogram, System.nanoTime(), Stream.of( 1, 2, 3 ) );
+
+        assertEquals( histogram.snapshot().count, 0 );
+        assertEquals( stream.toList(), asList( 1, 2, 3 ) );
+        stream.close();
+        assertEquals( histogram.snapshot().count, 1 );
+
+        SecurityMetrics.timed( histogram, System.nanoTime(), Stream.of( 1, 2, 3 ) ).close();
+        assertEquals( histogram.snapshot().count, 2 );
+    }
+
+    @Test
+    public void testShouldRecordWithoutAllocation() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for( int i = 0; i < 100_000; i++ ) histogram.record( i );
+
+        final com.sun.management.ThreadMXBean threads = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        final long id = Thread.currentThread().getId();
+
+        final long before = threads.getThreadAllocatedBytes( id );
+        for( int i = 0; i < 100_000; i++ ) histogram.record( i );
+        final long allocated = threads.getThreadAllocatedBytes( id ) - before;
+
+        assertTrue( allocated < 1024, allocated + " bytes" );
+    }
+}
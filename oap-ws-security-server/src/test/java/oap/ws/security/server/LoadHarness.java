@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Replays a weighted mix of requests against a server running on localhost.
+ * <p>
+ * With a {@code rate} the requests are scheduled at fixed intervals and latency is measured from the
+ * scheduled start, so a stalled server is charged for the requests it delayed (no coordinated omission).
+ * Without a rate every worker sends its next request as soon as the previous one completes.
+ */
+@Slf4j
+public class LoadHarness {
+    private final List<Scenario> scenarios = new ArrayList<>();
+    private int totalWeight;
+    private int concurrency = 8;
+    private int rate;
+    private long warmup;
+    private long duration = SECONDS.toNanos( 10 );
+
+    public LoadHarness scenario( String name, int weight, Function<Worker, HttpUriRequest> request ) {
+        scenarios.add( new Scenario( name, weight, request ) );
+        totalWeight += weight;
+        return this;
+    }
+
+    public LoadHarness concurrency( int concurrency ) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param rate requests per second over all workers, 0 - as fast as the workers can go
+     */
+    public LoadHarness rate( int rate ) {
+        this.rate = rate;
+        return this;
+    }
+
+    public LoadHarness warmup( long time, TimeUnit unit ) {
+        this.warmup = unit.toNanos( time );
+        return this;
+    }
+
+    public LoadHarness duration( long time, TimeUnit unit ) {
+        this.duration = unit.toNanos( time );
+        return this;
+    }
+
+    public Report run() throws InterruptedException {
+        if( warmup > 0 ) execute( warmup );
+
+        final Report report = execute( duration );
+        log.info( "{}", report );
+        return report;
+    }
+
+    private Report execute( long time ) throws InterruptedException {
+        final Map<String, Stats> stats = new LinkedHashMap<>();
+        for( Scenario scenario : scenarios ) stats.put( scenario.name, new Stats() );
+
+        final ExecutorService pool = Executors.newFixedThreadPool( concurrency );
+        final long interval = rate > 0 ? SECONDS.toNanos( 1 ) / rate : 0;
+        final AtomicLong scheduled = new AtomicLong();
+        final long start = System.nanoTime();
+        final long end = start + time;
+
+        try( CloseableHttpClient client = HttpClients.custom()
+            .setMaxConnPerRoute( concurrency )
+            .setMaxConnTotal( concurrency )
+            .build() ) {
+
+            for( int i = 0; i < concurrency; i++ )
+                pool.execute( () -> {
+                    final Worker worker = new Worker( client );
+
+                    while( true ) {
+                        long begin = System.nanoTime();
+                        if( interval > 0 ) {
+                            begin = start + scheduled.getAndIncrement() * interval;
+                            final long wait = begin - System.nanoTime();
+                            if( wait > 0 ) sleep( wait );
+                        }
+                        if( begin >= end || Thread.currentThread().isInterrupted() ) return;
+
+                        final Scenario scenario = pick();
+                        stats.get( scenario.name ).record( begin, worker.execute( scenario.request.apply( worker ) ) );
+                    }
+                } );
+
+            pool.shutdown();
+            if( !pool.awaitTermination( time + SECONDS.toNanos( 60 ), NANOSECONDS ) ) pool.shutdownNow();
+        } catch( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+
+        return new Report( stats, System.nanoTime() - start );
+    }
+
+    private Scenario pick() {
+        int value = ThreadLocalRandom.current().nextInt( totalWeight );
+        for( Scenario scenario : scenarios ) {
+            value -= scenario.weight;
+            if( value < 0 ) return scenario;
+        }
+        throw new IllegalStateException( "no scenarios" );
+    }
+
+    private static void sleep( long nanos ) {
+        try {
+            NANOSECONDS.sleep( nanos );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Scenario {
+        final String name;
+        final int weight;
+        final Function<Worker, HttpUriRequest> request;
+
+        Scenario( String name, int weight, Function<Worker, HttpUriRequest> request ) {
+            this.name = name;
+            this.weight = weight;
+            this.request = request;
+        }
+    }
+
+    /**
+     * State of one load thread, available to the request factories.
+     */
+    public static class Worker {
+        private final CloseableHttpClient client;
+        public final ThreadLocalRandom random = ThreadLocalRandom.current();
+        public String lastBody;
+
+        private Worker( CloseableHttpClient client ) {
+            this.client = client;
+        }
+
+        /**
+         * @return the status code, or -1 on an I/O error
+         */
+        private int execute( HttpUriRequest request ) {
+            try( CloseableHttpResponse response = client.execute( request ) ) {
+                lastBody = response.getEntity() != null ? EntityUtils.toString( response.getEntity() ) : null;
+                return response.getStatusLine().getStatusCode();
+            } catch( IOException e ) {
+                log.trace( e.getMessage(), e );
+                lastBody = null;
+                return -1;
+            }
+        }
+    }
+
+    private static class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        void record( long begin, int code ) {
+            latency.recordSince( begin );
+            if( code < 200 || code >= 400 ) errors.increment();
+        }
+    }
+
+    public static class Report {
+        public final Map<String, LatencyHistogram.Snapshot> latency = new LinkedHashMap<>();
+        public final Map<String, Long> errors = new LinkedHashMap<>();
+        public final long requests;
+        public final long totalErrors;
+        /**
+         * requests per second
+         */
+        public final double throughput;
+
+        Report( Map<String, Stats> stats, long elapsed ) {
+            long requests = 0;
+            long errors = 0;
+            for( Map.Entry<String, Stats> entry : stats.entrySet() ) {
+                final LatencyHistogram.Snapshot snapshot = entry.getValue().latency.snapshot();
+                final long scenarioErrors = entry.getValue().errors.sum();
+
+                latency.put( entry.getKey(), snapshot );
+                this.errors.put( entry.getKey(), scenarioErrors );
+                requests += snapshot.count;
+                errors += scenarioErrors;
+            }
+            this.requests = requests;
+            this.totalErrors = errors;
+            this.throughput = requests * ( double ) SECONDS.toNanos( 1 ) / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder( String.format( "%d requests, %.1f req/s, %d errors%n",
+                requests, throughput, totalErrors ) );
+            result.append( String.format( "%-12s %10s %8s %10s %10s %10s %10s%n",
+                "scenario", "requests", "errors", "p50, us", "p99, us", "p999, us", "max, us" ) );
+            latency.forEach( ( name, s ) -> result.append( String.format( "%-12s %10d %8d %10.1f %10.1f %10.1f %10.1f%n",
+                name, s.count, errors.get( name ), s.p50, s.p99, s.p999, s.max ) ) );
+            return result.toString();
+        }
+    }
+}
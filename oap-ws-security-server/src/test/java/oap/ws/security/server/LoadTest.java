@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.application.Application;
+import oap.json.Binder;
+import oap.testng.Env;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.LoginWS;
+import oap.ws.security.Role;
+import oap.ws.security.SecurityInterceptor;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static oap.http.testng.HttpAsserts.HTTP_PREFIX;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Production-like traffic mix against the full web service stack on localhost, wired with the services of
+ * oap-module.conf: {@link ServerAuthService}, {@link BoundedPasswordHasher} and {@link ShardedTokenStore}.
+ * The shape of the run is set with system properties, e.g. {@code -Dload.concurrency=64 -Dload.rate=5000
+ * -Dload.duration=300 -Dload.organizations=1000 -Dload.users=200} to size an instance before rollout.
+ * <p>
+ * It belongs to the {@code load} group, excluded from the regular build: run it with {@code mvn test -Pload -Dtest=LoadTest}.
+ */
+@Test( groups = "load" )
+public class LoadTest extends AbstractWsTest {
+    private static final String PASSWORD = "12345";
+
+    private final int concurrency = Integer.getInteger( "load.concurrency", 4 );
+    private final int rate = Integer.getInteger( "load.rate", 0 );
+    private final int warmup = Integer.getInteger( "load.warmup", 1 );
+    private final int duration = Integer.getInteger( "load.duration", 3 );
+    private final int organizations = Integer.getInteger( "load.organizations", 10 );
+    private final int usersPerOrganization = Integer.getInteger( "load.users", 50 );
+
+    private OrganizationStorage organizationStorage;
+    private BoundedPasswordHasher passwordHasher;
+    private ShardedTokenStore tokenStore;
+    private final List<String> adminTokens = new ArrayList<>();
+    private final List<String> userTokens = new ArrayList<>();
+    private String rootToken;
+
+    public LoadTest() {
+        super( "ws-load.conf" );
+    }
+
+    @BeforeClass
+    @Override
+    public void beforeClass() {
+        super.beforeClass();
+
+        organizationStorage = new OrganizationStorage( Env.tmpPath( "organizations" ) );
+        passwordHasher = new BoundedPasswordHasher( SALT, 0, 64, 1 );
+        tokenStore = new ShardedTokenStore( 60, 64, 5_000_000, 1000 );
+        tokenStore.start();
+        authService = new ServerAuthService( userStorage, passwordHasher, tokenStore );
+
+        Application.register( "security-interceptor", new SecurityInterceptor( authService ) );
+        Application.register( "ws-login", new LoginWS( authService, null, 10 ) );
+        Application.register( "ws-organization", new OrganizationWS( organizationStorage, userStorage, passwordHasher ) );
+
+        webServices.start();
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() throws Exception {
+        organizationStorage.close();
+        tokenStore.stop();
+        passwordHasher.stop();
+
+        super.afterClass();
+    }
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        organizationStorage.clear();
+        adminTokens.clear();
+        userTokens.clear();
+
+        final String password = passwordHasher.hashPassword( PASSWORD );
+
+        final List<DefaultUser> users = new ArrayList<>();
+        for( int o = 0; o < organizations; o++ ) {
+            organizationStorage.store( new Organization( organization( o ) ) );
+
+            users.add( user( Role.ORGANIZATION_ADMIN, organization( o ), admin( o ), password ) );
+            for( int u = 0; u < usersPerOrganization; u++ )
+                users.add( user( Role.USER, organization( o ), user( o, u ), password ) );
+        }
+        users.add( user( Role.ADMIN, organization( 0 ), "root@example.com", password ) );
+        userStorage.store( users );
+
+        for( int o = 0; o < organizations; o++ ) {
+            adminTokens.add( authService.generateToken( admin( o ), PASSWORD ).get().id );
+            userTokens.add( authService.generateToken( user( o, 0 ), PASSWORD ).get().id );
+        }
+        rootToken = authService.generateToken( "root@example.com", PASSWORD ).get().id;
+    }
+
+    @Test
+    public void testShouldServeProductionMix() throws InterruptedException {
+        final LoadHarness.Report report = new LoadHarness()
+            .concurrency( concurrency )
+            .rate( rate )
+            .warmup( warmup, SECONDS )
+            .duration( duration, SECONDS )
+            .scenario( "login", 5, w -> {
+                final int o = w.random.nextInt( organizations );
+                return new HttpGet( HTTP_PREFIX() + "/login/?email=" + user( o, w.random.nextInt( usersPerOrganization ) )
+                    + "&password=" + PASSWORD );
+            } )
+            .scenario( "organization", 35, w -> {
+                final int o = w.random.nextInt( organizations );
+                return authorized( new HttpGet( HTTP_PREFIX() + "/organizations/" + organization( o ) ), userTokens.get( o ) );
+            } )
+            .scenario( "user", 40, w -> {
+                final int o = w.random.nextInt( organizations );
+                return authorized( new HttpGet( HTTP_PREFIX() + "/organizations/" + organization( o ) + "/users/"
+                    + user( o, 0 ) ), userTokens.get( o ) );
+            } )
+            .scenario( "users", 5, w -> authorized( new HttpGet( HTTP_PREFIX() + "/organizations/"
+                + organization( w.random.nextInt( organizations ) ) + "/users?limit=100" ), rootToken ) )
+            .scenario( "userStore", 15, w -> {
+                final int o = w.random.nextInt( organizations );
+                final DefaultUser user = user( Role.USER, organization( o ), user( o, w.random.nextInt( usersPerOrganization ) ), PASSWORD );
+                final HttpPost post = new HttpPost( HTTP_PREFIX() + "/organizations/" + organization( o ) + "/users/store" );
+                post.setEntity( new StringEntity( Binder.json.marshal( user ), ContentType.APPLICATION_JSON ) );
+                return authorized( post, adminTokens.get( o ) );
+            } )
+            .run();
+
+        assertTrue( report.requests > 0 );
+        assertEquals( report.totalErrors, 0, report.toString() );
+    }
+
+    private static HttpUriRequest authorized( HttpUriRequest request, String token ) {
+        request.setHeader( "Authorization", token );
+        return request;
+    }
+
+    private static DefaultUser user( Role role, String organizationId, String email, String password ) {
+        final DefaultUser user = new DefaultUser( role, organizationId, email );
+        user.organizationName = organizationId;
+        user.password = password;
+        return user;
+    }
+
+    private static String organization( int o ) {
+        return "organization" + o;
+    }
+
+    private static String admin( int o ) {
+        return "admin" + o + "@example.com";
+    }
+
+    private static String user( int o, int u ) {
+        return "user" + o + "-" + u + "@example.com";
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import oap.application.Application;
+import oap.json.Binder;
+import oap.testng.Asserts;
+import oap.testng.Env;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.PasswordHasher;
+import oap.ws.security.Role;
+import oap.ws.security.SecurityInterceptor;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static oap.http.testng.HttpAsserts.HTTP_PREFIX;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+
+/**
+ * {@link OrganizationWS} over HTTP with sessions and the security interceptor, as deployed.
+ */
+public class OrganizationWSHttpTest extends AbstractWsTest {
+    private static final String PASSWORD = "12345";
+    private static final String OVERLOADED = "overloaded";
+
+    private OrganizationStorage organizationStorage;
+    private ShardedTokenStore tokenStore;
+    private ServerAuthService serverAuthService;
+    private PasswordHasher passwordHasher;
+
+    public OrganizationWSHttpTest() {
+        super( "ws-organization-http.conf" );
+    }
+
+    @BeforeClass
+    @Override
+    public void beforeClass() {
+        super.beforeClass();
+
+        organizationStorage = new OrganizationStorage( Env.tmpPath( "organizations" ) );
+        passwordHasher = new PasswordHasher( SALT ) {
+            @Override
+            public String hashPassword( String password ) {
+                if( OVERLOADED.equals( password ) ) throw new HashingOverloadedException( 7 );
+                return super.hashPassword( password );
+            }
+        };
+        tokenStore = new ShardedTokenStore( 60, 4, 1000, 1000 );
+        tokenStore.start();
+        serverAuthService = new ServerAuthService( userStorage, passwordHasher, tokenStore );
+
+        Application.register( "security-interceptor", new SecurityInterceptor( serverAuthService ) );
+        Application.register( "ws-organization", new OrganizationWS( organizationStorage, userStorage, passwordHasher ) );
+
+        webServices.start();
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() throws Exception {
+        organizationStorage.close();
+        tokenStore.stop();
+
+        super.afterClass();
+    }
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        organizationStorage.clear();
+    }
+
+    @Test
+    public void testShouldStoreGetDeleteOrganization() throws IOException {
+        final String token = login( Role.ADMIN, "root@example.com" );
+
+        final HttpPost store = new HttpPost( HTTP_PREFIX() + "/organizations/store" );
+        store.setEntity( new StringEntity( Asserts.contentOfTestResource( OrganizationWSTest.class, "12345.json" ), ContentType.APPLICATION_JSON ) );
+        assertEquals( execute( store, token ).code, 200 );
+
+        final Response response = execute( new HttpGet( HTTP_PREFIX() + "/organizations/12345" ), token );
+        assertEquals( response.code, 200 );
+        assertNotNull( response.etag );
+
+        final Organization organization = Binder.json.unmarshal( Organization.class, response.body );
+        assertEquals( organization.id, "12345" );
+        assertEquals( organization.name, "test" );
+        assertEquals( organization.description, "test organization" );
+
+        assertEquals( execute( new HttpDelete( HTTP_PREFIX() + "/organizations/12345" ), token ).code, 204 );
+
+        assertEquals( execute( new HttpGet( HTTP_PREFIX() + "/organizations/12345" ), token ).code, 404 );
+        assertFalse( organizationStorage.get( "12345" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldAnswerNotModifiedToMatchingIfNoneMatch() throws IOException {
+        organizationStorage.store( new Organization( "12345" ) );
+        final String token = login( Role.USER, "test@example.com" );
+
+        final String etag = execute( new HttpGet( HTTP_PREFIX() + "/organizations/12345" ), token ).etag;
+
+        final HttpGet conditional = new HttpGet( HTTP_PREFIX() + "/organizations/12345" );
+        conditional.setHeader( ETags.IF_NONE_MATCH, etag );
+        final Response notModified = execute( conditional, token );
+        assertEquals( notModified.code, 304 );
+        assertEquals( notModified.etag, etag );
+        assertEquals( notModified.body, "" );
+
+        organizationStorage.store( new Organization( "12345" ) );
+
+        final HttpGet stale = new HttpGet( HTTP_PREFIX() + "/organizations/12345" );
+        stale.setHeader( ETags.IF_NONE_MATCH, etag );
+        final Response modified = execute( stale, token );
+        assertEquals( modified.code, 200 );
+        assertNotNull( modified.etag );
+        assertFalse( modified.etag.equals( etag ) );
+    }
+
+    @Test
+    public void testShouldSearchUsersApartFromUserLookup() throws IOException {
+        organizationStorage.store( new Organization( "12345" ) );
+        final String token = login( Role.ORGANIZATION_ADMIN, "admin@example.com" );
+        login( Role.USER, "test@example.com" );
+        login( Role.USER, "search@example.com" );
+
+        final Response search = execute( new HttpGet( HTTP_PREFIX() + "/organizations/12345/user-search?prefix=search" ), token );
+        assertEquals( search.code, 200 );
+        final List<DefaultUser> found = Binder.json.unmarshal( new TypeReference<List<DefaultUser>>() {}, search.body );
+        assertEquals( found.stream().map( u -> u.email ).collect( toList() ), singletonList( "search@example.com" ) );
+
+        final Response user = execute( new HttpGet( HTTP_PREFIX() + "/organizations/12345/users/search@example.com" ), token );
+        assertEquals( user.code, 200 );
+        assertEquals( Binder.json.unmarshal( DefaultUser.class, user.body ).email, "search@example.com" );
+
+        assertEquals( execute( new HttpGet( HTTP_PREFIX() + "/organizations/12345/user-search?prefix=search&limit=-1" ), token ).code, 400 );
+    }
+
+    @Test
+    public void testShouldAskToRetryAfterIfHashingIsOverloaded() throws IOException {
+        organizationStorage.store( new Organization( "12345" ) );
+        final String token = login( Role.ORGANIZATION_ADMIN, "admin@example.com" );
+
+        final HttpPost store = new HttpPost( HTTP_PREFIX() + "/organizations/12345/users/store" );
+        store.setEntity( new StringEntity( "{\"email\":\"new@example.com\",\"password\":\"" + OVERLOADED + "\","
+            + "\"role\":\"USER\",\"organizationId\":\"12345\"}", ContentType.APPLICATION_JSON ) );
+        final Response rejected = execute( store, token );
+        assertEquals( rejected.code, 503 );
+        assertEquals( rejected.retryAfter, "7" );
+        assertFalse( userStorage.get( "new@example.com" ).isPresent() );
+
+        final HttpPost bulk = new HttpPost( HTTP_PREFIX() + "/organizations/12345/users/bulk" );
+        bulk.setEntity( new StringEntity( "{\"email\":\"bulk@example.com\",\"password\":\"" + OVERLOADED + "\",\"role\":\"USER\"}\n",
+            ContentType.APPLICATION_JSON ) );
+        final Response bulkRejected = execute( bulk, token );
+        assertEquals( bulkRejected.code, 503 );
+        assertEquals( bulkRejected.retryAfter, "7" );
+        assertFalse( userStorage.get( "bulk@example.com" ).isPresent() );
+    }
+
+    private String login( Role role, String email ) {
+        final DefaultUser user = new DefaultUser( role, "12345", email );
+        user.organizationName = "test";
+        user.password = passwordHasher.hashPassword( PASSWORD );
+        userStorage.store( user );
+
+        return serverAuthService.generateToken( email, PASSWORD ).get().id;
+    }
+
+    private static Response execute( HttpUriRequest request, String token ) throws IOException {
+        request.setHeader( "Authorization", token );
+        try( CloseableHttpClient client = HttpClients.createDefault();
+             CloseableHttpResponse response = client.execute( request ) ) {
+            return new Response( response.getStatusLine().getStatusCode(),
+                header( response, ETags.ETAG ), header( response, HashingOverloadedException.RETRY_AFTER ),
+                response.getEntity() != null ? EntityUtils.toString( response.getEntity() ) : "" );
+        }
+    }
+
+    private static String header( CloseableHttpResponse response, String name ) {
+        return response.getFirstHeader( name ) != null ? response.getFirstHeader( name ).getValue() : null;
+    }
+
+    private static final class Response {
+        final int code;
+        final String etag;
+        final String retryAfter;
+        final String body;
+
+        Response( int code, String etag, String retryAfter, String body ) {
+            this.code = code;
+            this.etag = etag;
+            this.retryAfter = retryAfter;
+            this.body = body;
+        }
+    }
+}
@@ -37,7 +37,13 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
 import static oap.http.testng.HttpAsserts.HTTP_PREFIX;
 import static oap.http.testng.HttpAsserts.assertDelete;
 import static oap.http.testng.HttpAsserts.assertPost;
@@ -49,6 +55,8 @@ import static org.testng.Assert.assertNotNull;
 public class OrganizationWSTest extends AbstractWsTest {
     private OrganizationStorage organizationStorage;
 
+    private static final Optional<Boolean> NOT_DURABLE = Optional.empty();
+
     private OrganizationWS organizationWS;
 
 
@@ -93,9 +101,7 @@ public class OrganizationWSTest extends AbstractWsTest {
         assertPost( HTTP_PREFIX() + "/organization/store", request, ContentType.APPLICATION_JSON )
             .hasCode( 200 );
 
-        final DefaultUser sessionUser = new DefaultUser( Role.USER, "12345", "test@test.com" );
-
-        final Organization organization = organizationWS.organization( "12345", sessionUser ).get();
+        final Organization organization = organizationStorage.get( "12345" ).get();
 
         assertEquals( organization.id, "12345" );
         assertEquals( organization.name, "test" );
@@ -106,6 +112,19 @@ public class OrganizationWSTest extends AbstractWsTest {
         assertFalse( organizationStorage.get( "12345" ).isPresent() );
     }
 
+    @Test
+    public void testShouldRejectNegativeLimit() {
+        validating( OrganizationWSI.class )
+            .isError( 400, "limit must not be negative" )
+            .forInstance( organizationWS )
+            .list( Optional.empty(), Optional.of( -1 ), null );
+
+        validating( OrganizationWSI.class )
+            .isError( 400, "limit must not be negative" )
+            .forInstance( organizationWS )
+            .users( "12345", Optional.empty(), Optional.of( -1 ), null );
+    }
+
     @Test
     public void testShouldNotStoreUserIfOrganizationDoesNotExist() {
         final DefaultUser user = new DefaultUser( Role.USER, "12345", "test@example.com" );
@@ -117,7 +136,7 @@ public class OrganizationWSTest extends AbstractWsTest {
         validating( OrganizationWSI.class )
             .isError( 403, "Forbidden" )
             .forInstance( organizationWS )
-            .userStore( userUpdate, "98765", user );
+            .userStore( userUpdate, "98765", user, NOT_DURABLE );
     }
 
     @Test
@@ -135,7 +154,7 @@ public class OrganizationWSTest extends AbstractWsTest {
         validating( OrganizationWSI.class )
             .isError( 403, "Forbidden" )
             .forInstance( organizationWS )
-            .userStore( userUpdate, "98765", user );
+            .userStore( userUpdate, "98765", user, NOT_DURABLE );
     }
 
     @Test
@@ -158,7 +177,7 @@ public class OrganizationWSTest extends AbstractWsTest {
         validating( OrganizationWSI.class )
             .isError( 403, "Forbidden" )
             .forInstance( organizationWS )
-            .userStore( userUpdate, "98765", user );
+            .userStore( userUpdate, "98765", user, NOT_DURABLE );
     }
 
     @Test
@@ -173,7 +192,7 @@ public class OrganizationWSTest extends AbstractWsTest {
 
         final DefaultUser sessionUser = new DefaultUser( Role.ADMIN, "someOrg", "98765" );
 
-        organizationWS.userStore( user, "12345", sessionUser );
+        organizationWS.userStore( user, "12345", sessionUser, NOT_DURABLE );
 
         assertNotNull( userStorage.get( "test@example.com" ).isPresent() );
     }
@@ -193,7 +212,7 @@ public class OrganizationWSTest extends AbstractWsTest {
         validating( OrganizationWSI.class )
             .isError( 403, "Forbidden" )
             .forInstance( organizationWS )
-            .userStore( user, "12345", sessionUser );
+            .userStore( user, "12345", sessionUser, NOT_DURABLE );
     }
 
     @Test
@@ -211,7 +230,7 @@ public class OrganizationWSTest extends AbstractWsTest {
         validating( OrganizationWSI.class )
             .isError( 403, "Forbidden" )
             .forInstance( organizationWS )
-            .userStore( user, "12345", sessionUser );
+            .userStore( user, "12345", sessionUser, NOT_DURABLE );
     }
 
     @Test
@@ -226,8 +245,49 @@ public class OrganizationWSTest extends AbstractWsTest {
 
         final DefaultUser sessionUser = new DefaultUser( Role.ORGANIZATION_ADMIN, "12345", "sessionUser@example.com" );
 
-        organizationWS.userStore( user, "12345", sessionUser );
+        organizationWS.userStore( user, "12345", sessionUser, NOT_DURABLE );
 
         assertNotNull( userStorage.get( "test@example.com" ).orElse( null ) );
     }
+
+    @Test
+    public void testShouldImportUsersInBulk() {
+        organizationStorage.store( new Organization( "12345" ) );
+        userStorage.store( new DefaultUser( Role.USER, "98765", "other@example.com" ) );
+
+        final String body = "{\"email\":\"A@example.com\",\"password\":\"1\",\"role\":\"USER\"}\n"
+            + "not a user\n"
+            + "{\"email\":\"other@example.com\",\"password\":\"2\",\"role\":\"USER\"}\n"
+            + "{\"email\":\"admin@example.com\",\"password\":\"3\",\"role\":\"ADMIN\"}\n"
+            + "{\"email\":\"b@example.com\",\"password\":\"4\",\"role\":\"ORGANIZATION_ADMIN\"}\n";
+
+        final DefaultUser sessionUser = new DefaultUser( Role.ORGANIZATION_ADMIN, "12345", "org-admin@example.com" );
+
+        final List<BulkUserResult> results = organizationWS.importUsers( body.getBytes( UTF_8 ), "12345", sessionUser );
+
+        assertEquals( results.stream().map( r -> r.code ).collect( toList() ), asList( 200, 400, 403, 403, 200 ) );
+        assertEquals( userStorage.get( "a@example.com" ).get().password, new PasswordHasher( "test" ).hashPassword( "1" ) );
+        assertEquals( userStorage.get( "b@example.com" ).get().organizationId, "12345" );
+        assertFalse( userStorage.get( "admin@example.com" ).isPresent() );
+        assertEquals( userStorage.get( "other@example.com" ).get().organizationId, "98765" );
+    }
+
+    @Test
+    public void testShouldAuditOrganizationChangesWithActor() throws IOException {
+        final Path path = Env.tmpPath( "audit" );
+        final AuditLog auditLog = new AuditLog( path, 16, 10, 60, 1 << 20 );
+        auditLog.start();
+        final OrganizationWS audited = new OrganizationWS( organizationStorage, userStorage, new PasswordHasher( "test" ),
+            auditLog, null );
+
+        final DefaultUser admin = new DefaultUser( Role.ADMIN, "12345", "admin@example.com" );
+        audited.store( new Organization( "98765" ), NOT_DURABLE, admin );
+        audited.delete( "98765", admin );
+        auditLog.stop();
+
+        final List<AuditEvent> events = AuditLogTest.read( path );
+        assertEquals( events.stream().map( e -> e.type ).collect( toList() ),
+            asList( AuditEvent.Type.ORGANIZATION_STORE, AuditEvent.Type.ORGANIZATION_DELETE ) );
+        assertEquals( events.stream().map( e -> e.actor ).collect( toList() ), asList( "admin@example.com", "admin@example.com" ) );
+    }
 }
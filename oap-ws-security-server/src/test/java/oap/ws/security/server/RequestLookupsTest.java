@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.OrganizationAwareWS;
+import oap.ws.security.PasswordHasher;
+import oap.ws.security.Role;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class RequestLookupsTest extends AbstractTest {
+    private static final int REQUESTS = 10_000;
+
+    private UserStorage userStorage;
+    private OrganizationWS organizationWS;
+
+    @BeforeClass
+    public void beforeClass() {
+        userStorage = new UserStorage( Env.tmpPath( "users" ) );
+        organizationWS = new OrganizationWS( new OrganizationStorage( Env.tmpPath( "organizations" ) ), userStorage,
+            new PasswordHasher( "test" ) );
+
+        userStorage.store( new DefaultUser( Role.USER, "12345", "test@example.com" ) );
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() throws Exception {
+        userStorage.close();
+
+        super.afterClass();
+    }
+
+    /**
+     * the validation chain and the handler of GET /{organizationId}/users/{email}: the validator reads the storage,
+     * the handler is served by the memo and releases it
+     */
+    @Test
+    public void testShouldLookupUserOncePerRequest() {
+        final RequestLookups lookups = RequestLookups.current();
+        lookups.clear();
+
+        final long before = lookups.lookups;
+        for( int i = 0; i < REQUESTS; i++ ) {
+            assertFalse( organizationWS.validateUserAccessById( "12345", "Test@example.com" ).isFailed() );
+            assertEquals( lookups.lookups - before, i + 1 );
+
+            assertTrue( organizationWS.findUser( "Test@example.com" ).isPresent() );
+            assertEquals( lookups.lookups - before, i + 1 );
+        }
+    }
+
+    @Test
+    public void testShouldDeleteUserResolvedByValidation() {
+        final RequestLookups lookups = RequestLookups.current();
+        final DefaultUser sessionUser = new DefaultUser( Role.ORGANIZATION_ADMIN, "12345", "admin@example.com" );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "deleted@example.com" ) );
+
+        final long before = lookups.lookups;
+        organizationWS.validateUserAccessById( "12345", "Deleted@example.com" );
+        organizationWS.userDelete( "12345", "Deleted@example.com", sessionUser );
+
+        assertEquals( lookups.lookups - before, 1 );
+        assertFalse( userStorage.get( "deleted@example.com" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldNotServeStaleUserAfterStorageChange() {
+        final RequestLookups lookups = RequestLookups.current();
+
+        assertTrue( lookups.user( userStorage, "Test@example.com" ).isPresent() );
+
+        userStorage.delete( "test@example.com" );
+        try {
+            assertFalse( lookups.user( userStorage, "Test@example.com" ).isPresent() );
+        } finally {
+            userStorage.store( new DefaultUser( Role.USER, "12345", "test@example.com" ) );
+            lookups.clear();
+        }
+    }
+
+    @Test
+    public void testShouldAllocateLessThanUnmemoizedLookups() {
+        for( int i = 0; i < REQUESTS; i++ ) {
+            memoizedUserRequest();
+            unmemoizedUserRequest();
+        }
+
+        final long memoized = allocated( this::memoizedUserRequest );
+        final long unmemoized = allocated( this::unmemoizedUserRequest );
+
+        assertTrue( memoized < unmemoized, "memoized " + memoized + " bytes, unmemoized " + unmemoized + " bytes" );
+    }
+
+    /**
+     * the object access check and handler of GET /{organizationId}/users/{email}
+     */
+    private void memoizedUserRequest() {
+        OrganizationAwareWS.validateObjectAccess( RequestLookups.current().user( userStorage, "Test@example.com" ), "12345" );
+        organizationWS.findUser( "Test@example.com" );
+    }
+
+    /**
+     * the same calls as they were before the memo
+     */
+    private void unmemoizedUserRequest() {
+        OrganizationAwareWS.validateObjectAccess( userStorage.get( "Test@example.com" ), "12345" );
+        userStorage.get( "Test@example.com" ).map( Converters::toUserDTO );
+    }
+
+    @SuppressWarnings( "restriction" )
+    private static long allocated( Runnable request ) {
+        final com.sun.management.ThreadMXBean threads = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        final long id = Thread.currentThread().getId();
+
+        final long before = threads.getThreadAllocatedBytes( id );
+        for( int i = 0; i < REQUESTS; i++ ) request.run();
+        return threads.getThreadAllocatedBytes( id ) - before;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws.security.server;
+
+import oap.application.Application;
+import oap.application.Kernel;
+import oap.application.Module;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * A primary kernel running the module as deployed and a replica kernel calling its
+ * security-replication-master over oap-remoting.
+ */
+public class SecurityReplicaTest extends AbstractTest {
+    private Kernel primary;
+    private Kernel secondary;
+    private UserStorage primaryUsers;
+    private OrganizationStorage primaryOrganizations;
+    private UserStorage replicaUsers;
+    private OrganizationStorage replicaOrganizations;
+    private Link link;
+    private SecurityReplica replica;
+
+    @BeforeClass
+    public void beforeClass() throws IOException {
+        final int port = Env.port();
+
+        primary = new Kernel( Module.CONFIGURATION.urlsFromClassPath() );
+        primary.start( conf( "primary.conf",
+            "oap-http-listener-plain.parameters.port = " + port,
+            "organization-storage.parameters.path = \"" + Env.tmpPath( "primary/organizations" ) + "\"",
+            "user-storage.parameters.path = \"" + Env.tmpPath( "primary/users" ) + "\"",
+            "api-key-storage.parameters.path = \"" + Env.tmpPath( "primary/api-keys" ) + "\"",
+            "token-store.parameters.path = \"" + Env.tmpPath( "primary/sessions" ) + "\"",
+            "audit-log.parameters.path = \"" + Env.tmpPath( "primary/audit" ) + "\"" ) );
+        primaryUsers = Application.service( "user-storage" );
+        primaryOrganizations = Application.service( "organization-storage" );
+
+        secondary = new Kernel( singletonList( getClass().getResource( "SecurityReplicaTest/replica.conf" ) ) );
+        secondary.start( conf( "replica.conf",
+            "replica-organization-storage.parameters.path = \"" + Env.tmpPath( "replica/organizations" ) + "\"",
+            "replica-user-storage.parameters.path = \"" + Env.tmpPath( "replica/users" ) + "\"",
+            "replica-master.remoteUrl = \"http://localhost:" + port + "/remote/\"" ) );
+        replicaUsers = Application.service( "replica-user-storage" );
+        replicaOrganizations = Application.service( "replica-organization-storage" );
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() throws Exception {
+        secondary.stop();
+        primary.stop();
+
+        super.afterClass();
+    }
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        primaryUsers.clear();
+        primaryOrganizations.clear();
+        replicaUsers.clear();
+        replicaOrganizations.clear();
+
+        link = new Link( Application.service( "replica-master" ) );
+        replica = new SecurityReplica( link, replicaUsers, replicaOrganizations, 1000, 2 );
+    }
+
+    @Test
+    public void testShouldReplicateSnapshotThenIncrementalChanges() {
+        replicaUsers.store( new DefaultUser( Role.USER, "12345", "stale@example.com" ) );
+        primaryOrganizations.store( new Organization( "12345" ) );
+        primaryUsers.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+
+        replica.sync();
+
+        assertTrue( replicaOrganizations.get( "12345" ).isPresent() );
+        assertTrue( replicaUsers.get( "a@example.com" ).isPresent() );
+        assertNotSame( replicaUsers.get( "a@example.com" ).get(), primaryUsers.get( "a@example.com" ).get() );
+        assertFalse( replicaUsers.get( "stale@example.com" ).isPresent() );
+
+        for( int i = 0; i < 5; i++ ) primaryUsers.store( new DefaultUser( Role.USER, "12345", i + "@example.com" ) );
+        primaryUsers.delete( "a@example.com" );
+        link.snapshots = 0;
+
+        replica.sync();
+
+        assertEquals( link.snapshots, 0 );
+        assertEquals( replicaUsers.selectByOrganization( "12345" ).count(), 5 );
+        assertFalse( replicaUsers.get( "a@example.com" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldResumeInterruptedSnapshot() {
+        replicaUsers.store( new DefaultUser( Role.USER, "12345", "stale@example.com" ) );
+        for( int i = 0; i < 5; i++ ) primaryUsers.store( new DefaultUser( Role.USER, "12345", i + "@example.com" ) );
+
+        link.calls = 2;
+        replica.sync();
+
+        assertTrue( replicaUsers.get( "0@example.com" ).isPresent() );
+        assertTrue( replicaUsers.get( "1@example.com" ).isPresent() );
+        assertFalse( replicaUsers.get( "2@example.com" ).isPresent() );
+        assertTrue( replicaUsers.get( "stale@example.com" ).isPresent() );
+
+        link.calls = Integer.MAX_VALUE;
+        link.snapshots = 0;
+        replica.sync();
+
+        assertEquals( link.snapshots, 2 );
+        for( int i = 0; i < 5; i++ ) assertTrue( replicaUsers.get( i + "@example.com" ).isPresent() );
+        assertFalse( replicaUsers.get( "stale@example.com" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldCatchUpBySequenceAfterDisconnect() {
+        primaryUsers.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        replica.sync();
+        final long sequence = replica.userSequence();
+
+        link.calls = 0;
+        primaryUsers.store( new DefaultUser( Role.ADMIN, "12345", "a@example.com" ) );
+        primaryUsers.store( new DefaultUser( Role.USER, "12345", "b@example.com" ) );
+        replica.sync();
+        assertEquals( replica.userSequence(), sequence );
+
+        link.calls = Integer.MAX_VALUE;
+        link.snapshots = 0;
+        replica.sync();
+
+        assertEquals( link.snapshots, 0 );
+        assertEquals( replicaUsers.get( "a@example.com" ).get().role, Role.ADMIN );
+        assertTrue( replicaUsers.get( "b@example.com" ).isPresent() );
+    }
+
+    private static Path conf( String name, String... services ) throws IOException {
+        final Path path = Env.tmpPath( name );
+        Files.createDirectories( path.getParent() );
+        Files.write( path, ( "services {\n" + String.join( "\n", services ) + "\n}\n" ).getBytes( UTF_8 ) );
+        return path;
+    }
+
+    /**
+     * the remoting proxy of the primary, cut after {@code calls} calls and counting snapshot pages
+     */
+    private static final class Link implements SecurityReplicationMaster {
+        private final SecurityReplicationMaster master;
+        volatile int calls = Integer.MAX_VALUE;
+        int snapshots;
+
+        Link( SecurityReplicationMaster master ) {
+            this.master = master;
+        }
+
+        @Override
+        public ChangeBatch<DefaultUser> userChanges( String epoch, long sequence, String after, int limit ) {
+            connect();
+            return count( master.userChanges( epoch, sequence, after, limit ) );
+        }
+
+        @Override
+        public ChangeBatch<Organization> organizationChanges( String epoch, long sequence, String after, int limit ) {
+            connect();
+            return count( master.organizationChanges( epoch, sequence, after, limit ) );
+        }
+
+        private void connect() {
+            if( calls <= 0 ) throw new UncheckedIOException( new ConnectException( "disconnected" ) );
+            calls--;
+        }
+
+        private <T> ChangeBatch<T> count( ChangeBatch<T> batch ) {
+            if( batch.snapshot ) snapshots++;
+            return batch;
+        }
+    }
+}
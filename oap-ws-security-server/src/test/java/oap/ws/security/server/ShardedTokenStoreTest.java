@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ShardedTokenStoreTest extends AbstractTest {
+    private static final long TTL = 60_000;
+    private static final long TICK = 1000;
+
+    @AfterMethod
+    public void resetTime() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void testShouldExpireIdleToken() {
+        final ShardedTokenStore store = store( 100 );
+        store.put( token( "1", "test@example.com" ) );
+
+        time( TTL - TICK );
+        assertTrue( store.get( "1" ).isPresent() );
+
+        time( TTL * 3 );
+        store.expire();
+        assertFalse( store.get( "1" ).isPresent() );
+        assertEquals( store.size(), 0 );
+    }
+
+    @Test
+    public void testShouldSlideExpirationOnAccess() {
+        final ShardedTokenStore store = store( 100 );
+        store.put( token( "1", "test@example.com" ) );
+
+        for( long t = TTL / 2; t <= TTL * 10; t += TTL / 2 ) {
+            time( t );
+            store.expire();
+            assertTrue( store.get( "1" ).isPresent(), "at " + t );
+        }
+        assertEquals( store.size(), 1 );
+
+        time( TTL * 12 );
+        store.expire();
+        assertEquals( store.size(), 0 );
+    }
+
+    @Test
+    public void testShouldExpireBeyondFirstWheelLevel() {
+        final long ttl = TICK * 64 * 64 * 3;
+        final ShardedTokenStore store = new ShardedTokenStore( ttl, 1, 100, TICK, 0 );
+        time( 0 );
+        store.put( token( "1", "test@example.com" ) );
+
+        time( ttl - TICK );
+        store.expire();
+        assertEquals( store.size(), 1 );
+
+        time( ttl + TICK * 2 );
+        store.expire();
+        assertEquals( store.size(), 0 );
+    }
+
+    @Test
+    public void testShouldBoundNumberOfTokens() {
+        final ShardedTokenStore store = store( 4 );
+        for( int i = 0; i < 10; i++ ) {
+            time( i * TICK );
+            store.put( token( String.valueOf( i ), "test@example.com" ) );
+        }
+
+        assertEquals( store.size(), 4 );
+        assertEquals( store.evicted(), 6 );
+        assertTrue( store.get( "9" ).isPresent() );
+        assertFalse( store.get( "0" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldRemoveTokensOfUser() {
+        final ShardedTokenStore store = store( 100 );
+        store.put( token( "1", "a@example.com" ) );
+        store.put( token( "2", "b@example.com" ) );
+        store.put( token( "3", "a@example.com" ) );
+
+        store.removeByUser( "A@example.com" );
+
+        assertFalse( store.get( "1" ).isPresent() );
+        assertTrue( store.get( "2" ).isPresent() );
+        assertFalse( store.get( "3" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldKeepUserIndexConsistent() {
+        final ShardedTokenStore store = new ShardedTokenStore( TTL, 4, 100, TICK, 0 );
+        time( 0 );
+        store.put( token( "1", "a@example.com" ) );
+        store.put( token( "2", "b@example.com" ) );
+        assertEquals( store.users(), 2 );
+
+        store.remove( "2" );
+        assertEquals( store.users(), 1 );
+
+        time( TTL / 2 );
+        store.put( token( "3", "a@example.com" ) );
+
+        time( TTL + TICK * 2 );
+        store.expire();
+        assertFalse( store.get( "1" ).isPresent() );
+        assertEquals( store.users(), 1 );
+
+        assertEquals( store.removeByUser( "a@example.com" ), singletonList( "3" ) );
+        assertEquals( store.users(), 0 );
+        assertEquals( store.removeByUser( "a@example.com" ), emptyList() );
+    }
+
+    private static ShardedTokenStore store( int maxTokens ) {
+        time( 0 );
+        return new ShardedTokenStore( TTL, 1, maxTokens, TICK, 0 );
+    }
+
+    private static void time( long millis ) {
+        DateTimeUtils.setCurrentMillisFixed( millis );
+    }
+
+    static Token token( String id, String email ) {
+        final Token token = new Token();
+        token.id = id;
+        token.user = new DefaultUser( Role.USER, "12345", email );
+        return token;
+    }
+}
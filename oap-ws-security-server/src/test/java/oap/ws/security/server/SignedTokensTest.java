@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class SignedTokensTest extends AbstractTest {
+
+    @AfterMethod
+    public void resetTime() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void testShouldVerifySignedToken() {
+        final SignedTokens signedTokens = signedTokens( "k1", "k1", "secret1" );
+        final DefaultUser user = new DefaultUser( Role.ORGANIZATION_ADMIN, "12345", "test@example.com" );
+
+        final Token token = signedTokens.verify( signedTokens.sign( user ).id ).get();
+
+        assertEquals( token.user.getEmail(), "test@example.com" );
+        assertEquals( token.user.getRole(), Role.ORGANIZATION_ADMIN );
+        assertEquals( token.user.getOrganization(), "12345" );
+        assertEquals( Converters.toTokenDTO( token ).user.getEmail(), "test@example.com" );
+    }
+
+    @Test
+    public void testShouldKeepNullOrganization() {
+        final SignedTokens signedTokens = signedTokens( "k1", "k1", "secret1" );
+
+        final Token token = signedTokens.verify( signedTokens.sign( new DefaultUser( Role.ADMIN, null, "a@example.com" ) ).id ).get();
+
+        assertNull( token.user.getOrganization() );
+    }
+
+    @Test
+    public void testShouldRejectTamperedAndExpiredTokens() {
+        DateTimeUtils.setCurrentMillisFixed( 0 );
+        final SignedTokens signedTokens = signedTokens( "k1", "k1", "secret1" );
+        final String id = signedTokens.sign( new DefaultUser( Role.USER, "12345", "test@example.com" ) ).id;
+
+        final int at = id.length() / 2;
+        final String tampered = id.substring( 0, at ) + ( id.charAt( at ) == 'A' ? 'B' : 'A' ) + id.substring( at + 1 );
+        assertFalse( signedTokens.verify( tampered ).isPresent() );
+        assertFalse( signedTokens.verify( SignedTokens.PREFIX + "garbage" ).isPresent() );
+
+        DateTimeUtils.setCurrentMillisFixed( MINUTES.toMillis( 60 ) );
+        assertFalse( signedTokens.verify( id ).isPresent() );
+    }
+
+    @Test
+    public void testShouldAcceptPreviousKeyAfterRotation() {
+        final String id = signedTokens( "k1", "k1", "secret1" )
+            .sign( new DefaultUser( Role.USER, "12345", "test@example.com" ) ).id;
+
+        final Map<String, String> keys = new HashMap<>();
+        keys.put( "k1", "secret1" );
+        keys.put( "k2", "secret2" );
+        final SignedTokens rotated = new SignedTokens( true, 60, "k2", keys );
+
+        assertTrue( rotated.verify( id ).isPresent() );
+        assertTrue( rotated.verify( rotated.sign( new DefaultUser( Role.USER, "12345", "test@example.com" ) ).id ).isPresent() );
+
+        assertFalse( signedTokens( "k1", "k1", "other" ).verify( id ).isPresent() );
+    }
+
+    private static SignedTokens signedTokens( String currentKey, String keyId, String secret ) {
+        final Map<String, String> keys = new HashMap<>();
+        keys.put( keyId, secret );
+        return new SignedTokens( true, 60, currentKey, keys );
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.storage.FileStorage;
+import oap.storage.IdentifierBuilder;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.DefaultUser;
+import oap.ws.security.Role;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class UserStorageTest extends AbstractTest {
+    private UserStorage userStorage;
+
+    @BeforeClass
+    public void beforeClass() {
+        userStorage = new UserStorage( Env.tmpPath( "users" ) );
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() throws Exception {
+        userStorage.close();
+
+        super.afterClass();
+    }
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        userStorage.clear();
+    }
+
+    @Test
+    public void testShouldVersionUsersAndOrganizations() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "98765", "b@example.com" ) );
+
+        final long user = userStorage.userVersion( "A@example.com" );
+        final long organization = userStorage.organizationVersion( "12345" );
+        final long other = userStorage.organizationVersion( "98765" );
+
+        userStorage.store( new DefaultUser( Role.ADMIN, "12345", "a@example.com" ) );
+
+        assertTrue( userStorage.userVersion( "a@example.com" ) > user );
+        assertTrue( userStorage.organizationVersion( "12345" ) > organization );
+        assertEquals( userStorage.organizationVersion( "98765" ), other );
+
+        userStorage.delete( "b@example.com" );
+
+        assertTrue( userStorage.organizationVersion( "98765" ) > other );
+    }
+
+    @Test
+    public void testShouldMaintainOrganizationStats() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "b@example.com" ) );
+        userStorage.store( new DefaultUser( Role.ORGANIZATION_ADMIN, "12345", "c@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "98765", "d@example.com" ) );
+
+        userStorage.store( new DefaultUser( Role.ORGANIZATION_ADMIN, "12345", "A@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "98765", "b@example.com" ) );
+        userStorage.delete( "d@example.com" );
+
+        final OrganizationStats stats = userStorage.organizationStats( "12345" );
+        assertEquals( stats.users, 2 );
+        assertEquals( stats.roles.get( Role.ORGANIZATION_ADMIN ), Long.valueOf( 2 ) );
+        assertEquals( stats.roles.get( Role.USER ), Long.valueOf( 0 ) );
+
+        final OrganizationStats other = userStorage.organizationStats( "98765" );
+        assertEquals( other.users, 1 );
+        assertEquals( other.roles.get( Role.USER ), Long.valueOf( 1 ) );
+
+        userStorage.clear();
+
+        assertEquals( userStorage.organizationStats( "12345" ).users, 0 );
+    }
+
+    @Test
+    public void testShouldSearchUsersByEmailPrefix() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "anna@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "andrew@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "bob@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "98765", "anton@example.com" ) );
+
+        assertEquals( search( "12345", "AN", 10 ), asList( "andrew@example.com", "anna@example.com" ) );
+        assertEquals( search( "12345", "an", 1 ), asList( "andrew@example.com" ) );
+        assertEquals( search( "12345", "c", 10 ), asList() );
+        assertEquals( search( "unknown", "a", 10 ), asList() );
+    }
+
+    @Test
+    public void testShouldSelectUsersByOrganization() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "b@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "98765", "c@example.com" ) );
+
+        assertEquals( emails( "12345" ), set( "a@example.com", "b@example.com" ) );
+        assertEquals( emails( "98765" ), set( "c@example.com" ) );
+        assertEquals( emails( "unknown" ), set() );
+    }
+
+    @Test
+    public void testShouldReindexUserMovedToAnotherOrganization() {
+        final DefaultUser user = new DefaultUser( Role.USER, "12345", "a@example.com" );
+        userStorage.store( user );
+
+        user.organizationId = "98765";
+        userStorage.store( user );
+
+        assertEquals( emails( "12345" ), set() );
+        assertEquals( emails( "98765" ), set( "a@example.com" ) );
+    }
+
+    @Test
+    public void testShouldUnindexDeletedUser() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "b@example.com" ) );
+
+        userStorage.delete( "a@example.com" );
+
+        assertEquals( emails( "12345" ), set( "b@example.com" ) );
+    }
+
+    @Test
+    public void testShouldPageUsersOfOrganizationByCursor() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "c@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        userStorage.store( new DefaultUser( Role.USER, "12345", "b@example.com" ) );
+
+        assertEquals( page( "12345", Optional.empty(), Optional.of( 2 ) ), asList( "a@example.com", "b@example.com" ) );
+        assertEquals( page( "12345", Optional.of( "b@example.com" ), Optional.of( 2 ) ), asList( "c@example.com" ) );
+        assertEquals( page( "12345", Optional.of( "c@example.com" ), Optional.empty() ), asList() );
+    }
+
+    @Test
+    public void testShouldFindUserByEmailInAnyCase() {
+        userStorage.store( new DefaultUser( Role.USER, "12345", "Mixed@Example.com" ) );
+
+        assertEquals( userStorage.get( "mixed@example.com" ).get().email, "mixed@example.com" );
+        assertEquals( userStorage.get( "MIXED@EXAMPLE.COM" ).get().email, "mixed@example.com" );
+        assertEquals( userStorage.getByEmail( "mixed@EXAMPLE.com" ).get().getEmail(), "mixed@example.com" );
+
+        userStorage.store( new DefaultUser( Role.ADMIN, "12345", "MIXED@example.com" ) );
+        assertEquals( userStorage.select().count(), 1 );
+        assertEquals( userStorage.get( "mixed@example.com" ).get().role, Role.ADMIN );
+
+        userStorage.delete( "Mixed@Example.COM" );
+        assertFalse( userStorage.get( "mixed@example.com" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldMigrateMixedCaseIds() {
+        final Path path = Env.tmpPath( "mixed-case-users" );
+        final FileStorage<DefaultUser> legacy = new FileStorage<>( path, IdentifierBuilder.identify( DefaultUser::getEmail ).build() );
+        legacy.store( new DefaultUser( Role.USER, "12345", "Legacy@Example.com" ) );
+        legacy.close();
+
+        final UserStorage migrated = new UserStorage( path );
+        try {
+            assertEquals( migrated.get( "LEGACY@example.com" ).get().email, "legacy@example.com" );
+            assertEquals( emails( migrated, "12345" ), set( "legacy@example.com" ) );
+        } finally {
+            migrated.close();
+        }
+    }
+
+    @Test
+    public void testShouldMigrateJsonToBinaryFormatAndReload() {
+        final Path path = Env.tmpPath( "binary-users" );
+        final UserStorage json = new UserStorage( path );
+        json.store( new DefaultUser( Role.USER, "12345", "test@example.com" ) );
+        json.store( new DefaultUser( Role.ADMIN, "98765", "admin@example.com" ) );
+        json.close();
+
+        final UserStorage migrated = new UserStorage( path, StorageFormat.BINARY, 1000, 8 );
+        try {
+            assertEquals( emails( migrated, "12345" ), set( "test@example.com" ) );
+
+            migrated.delete( "admin@example.com" );
+            final DefaultUser user = new DefaultUser( Role.ORGANIZATION_ADMIN, "98765", "new@example.com" );
+            user.password = "hash";
+            migrated.store( user );
+        } finally {
+            migrated.close();
+        }
+
+        assertTrue( Files.exists( path.resolveSibling( "binary-users.json-migrated" ) ) );
+
+        final UserStorage reloaded = new UserStorage( path, StorageFormat.BINARY, 1000, 8 );
+        try {
+            assertEquals( reloaded.select().count(), 2 );
+            assertFalse( reloaded.get( "admin@example.com" ).isPresent() );
+
+            final DefaultUser user = reloaded.get( "new@example.com" ).get();
+            assertEquals( user.role, Role.ORGANIZATION_ADMIN );
+            assertEquals( user.organizationId, "98765" );
+            assertEquals( user.password, "hash" );
+            assertEquals( emails( reloaded, "98765" ), set( "new@example.com" ) );
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testShouldServeUsersWhileLoadingLazily() throws InterruptedException {
+        final Path path = Env.tmpPath( "lazy-users" );
+        final UserStorage binary = new UserStorage( path, StorageFormat.BINARY, 1000, 8 );
+        final List<DefaultUser> users = new ArrayList<>();
+        for( int i = 0; i < 50_000; i++ ) users.add( new DefaultUser( Role.USER, "12345", "user" + i + "@example.com" ) );
+        binary.store( users );
+        binary.close();
+
+        final UserStorage lazy = new UserStorage( path, StorageFormat.BINARY, 1000, 8, true );
+        try {
+            assertEquals( lazy.get( "USER49999@example.com" ).get().email, "user49999@example.com" );
+
+            lazy.store( new DefaultUser( Role.ADMIN, "98765", "user49998@example.com" ) );
+            lazy.delete( "user49997@example.com" );
+
+            while( !lazy.ready() ) Thread.sleep( 10 );
+
+            assertEquals( lazy.select().count(), 49_999 );
+            assertEquals( lazy.get( "user49998@example.com" ).get().role, Role.ADMIN );
+            assertFalse( lazy.get( "user49997@example.com" ).isPresent() );
+            assertEquals( lazy.selectByOrganization( "12345" ).count(), 49_998 );
+        } finally {
+            lazy.close();
+        }
+    }
+
+    @Test
+    public void testShouldKeepChangesMadeDuringCompaction() {
+        final Path path = Env.tmpPath( "compacted-users" );
+        final Set<String> expected = new HashSet<>();
+        final UserStorage binary = new UserStorage( path, StorageFormat.BINARY, 1, 0 );
+        try {
+            final long end = System.currentTimeMillis() + 500;
+            for( int i = 0; System.currentTimeMillis() < end; i++ ) {
+                final String email = "user" + i + "@example.com";
+                binary.store( new DefaultUser( Role.USER, "12345", email ) );
+                expected.add( email );
+                if( i % 3 == 0 ) {
+                    binary.delete( email );
+                    expected.remove( email );
+                }
+            }
+        } finally {
+            binary.close();
+        }
+
+        final UserStorage reloaded = new UserStorage( path, StorageFormat.BINARY, 1000, 8 );
+        try {
+            assertEquals( reloaded.select().map( DefaultUser::getEmail ).collect( toSet() ), expected );
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testShouldWriteBehindRecordAsStored() {
+        final Path path = Env.tmpPath( "write-behind-copy-users" );
+        final UserStorage binary = new UserStorage( path, StorageFormat.BINARY, 1000, 8, false, 60_000, 1_000_000 );
+        try {
+            final DefaultUser user = new DefaultUser( Role.USER, "12345", "a@example.com" );
+            binary.store( user );
+            user.role = Role.ADMIN;
+            binary.sync();
+        } finally {
+            binary.close();
+        }
+
+        final UserStorage reloaded = new UserStorage( path, StorageFormat.BINARY, 1000, 8 );
+        try {
+            assertEquals( reloaded.get( "a@example.com" ).get().role, Role.USER );
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testShouldCoalesceWritesBehind() {
+        final Path path = Env.tmpPath( "write-behind-users" );
+        final UserStorage binary = new UserStorage( path, StorageFormat.BINARY, 1000, 8, false, 60_000, 1_000_000 );
+        try {
+            binary.store( new DefaultUser( Role.USER, "12345", "deleted@example.com" ) );
+            binary.sync();
+
+            final long flushed = SecurityMetrics.counter( "storage.users.flushedRecords" ).sum();
+            for( int i = 0; i < 100; i++ )
+                binary.store( new DefaultUser( i % 2 == 0 ? Role.USER : Role.ADMIN, "12345", "a@example.com" ) );
+            binary.delete( "deleted@example.com" );
+            binary.sync();
+
+            assertEquals( SecurityMetrics.counter( "storage.users.flushedRecords" ).sum() - flushed, 2 );
+
+            binary.store( new DefaultUser( Role.USER, "98765", "b@example.com" ) );
+        } finally {
+            binary.close();
+        }
+
+        final UserStorage reloaded = new UserStorage( path, StorageFormat.BINARY, 1000, 8 );
+        try {
+            assertEquals( reloaded.get( "a@example.com" ).get().role, Role.ADMIN );
+            assertFalse( reloaded.get( "deleted@example.com" ).isPresent() );
+            assertTrue( reloaded.get( "b@example.com" ).isPresent() );
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testShouldPartitionUsersByOrganization() {
+        final Path path = Env.tmpPath( "partitioned-users" );
+        final UserStorage json = new UserStorage( path );
+        json.store( new DefaultUser( Role.USER, "12345", "test@example.com" ) );
+        json.store( new DefaultUser( Role.ADMIN, null, "admin@example.com" ) );
+        json.close();
+
+        final UserStorage migrated = new UserStorage( path, StorageFormat.PARTITIONED, 0, 0 );
+        try {
+            assertEquals( migrated.get( "Test@example.com" ).get().organizationId, "12345" );
+            assertEquals( migrated.get( "admin@example.com" ).get().role, Role.ADMIN );
+
+            migrated.store( new DefaultUser( Role.USER, "98765", "test@example.com" ) );
+            migrated.store( new DefaultUser( Role.USER, "../98765", "dots@example.com" ) );
+            migrated.delete( "admin@example.com" );
+        } finally {
+            migrated.close();
+        }
+
+        assertTrue( Files.exists( path.resolveSibling( "partitioned-users.json-migrated" ) ) );
+        assertTrue( Files.isDirectory( path.resolveSibling( "partitioned-users.shards" ).resolve( "98765" ) ) );
+
+        final UserStorage reloaded = new UserStorage( path, StorageFormat.PARTITIONED, 0, 0 );
+        try {
+            assertEquals( reloaded.select().count(), 2 );
+            assertEquals( emails( reloaded, "12345" ), set() );
+            assertEquals( emails( reloaded, "98765" ), set( "test@example.com" ) );
+            assertEquals( emails( reloaded, "../98765" ), set( "dots@example.com" ) );
+            assertFalse( reloaded.get( "admin@example.com" ).isPresent() );
+            assertEquals( reloaded.getByEmail( "TEST@example.com" ).get().getOrganization(), "98765" );
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testShouldChangeOrganizationsConcurrently() throws InterruptedException {
+        final Path path = Env.tmpPath( "concurrent-partitioned-users" );
+        final UserStorage partitioned = new UserStorage( path, StorageFormat.PARTITIONED, 0, 0 );
+        try {
+            final List<Thread> threads = new ArrayList<>();
+            for( int t = 0; t < 4; t++ ) {
+                final String organizationId = "organization" + t;
+                final Thread thread = new Thread( () -> {
+                    for( int i = 0; i < 500; i++ ) {
+                        partitioned.store( new DefaultUser( Role.USER, organizationId, organizationId + "-" + i + "@example.com" ) );
+                        partitioned.store( new DefaultUser( Role.USER, organizationId, "moved" + ( i % 10 ) + "@example.com" ) );
+                        if( i % 2 == 0 ) partitioned.delete( organizationId + "-" + i + "@example.com" );
+                    }
+                } );
+                thread.start();
+                threads.add( thread );
+            }
+            for( Thread thread : threads ) thread.join();
+
+            assertEquals( partitioned.select().count(), 4 * 250 + 10 );
+            for( int t = 0; t < 4; t++ ) {
+                final long moved = emails( partitioned, "organization" + t ).stream().filter( e -> e.startsWith( "moved" ) ).count();
+                assertEquals( partitioned.organizationStats( "organization" + t ).users, 250 + moved );
+            }
+        } finally {
+            partitioned.close();
+        }
+    }
+
+    @Test
+    public void testShouldRedoInterruptedPartitioning() throws IOException {
+        final Path path = Env.tmpPath( "interrupted-users" );
+        final UserStorage json = new UserStorage( path );
+        json.store( new DefaultUser( Role.USER, "12345", "a@example.com" ) );
+        json.store( new DefaultUser( Role.USER, "98765", "b@example.com" ) );
+        json.close();
+
+        final Path migrating = path.resolveSibling( "interrupted-users.shards.migrating" );
+        Files.createDirectories( migrating.resolve( "12345" ) );
+
+        final UserStorage migrated = new UserStorage( path, StorageFormat.PARTITIONED, 0, 0 );
+        try {
+            assertEquals( migrated.select().count(), 2 );
+            assertTrue( migrated.get( "b@example.com" ).isPresent() );
+        } finally {
+            migrated.close();
+        }
+
+        assertFalse( Files.exists( migrating ) );
+        assertTrue( Files.isDirectory( path.resolveSibling( "interrupted-users.shards" ).resolve( "98765" ) ) );
+    }
+
+    private List<String> page( String organizationId, Optional<String> cursor, Optional<Integer> limit ) {
+        return userStorage.selectByOrganization( organizationId, cursor, limit ).map( DefaultUser::getEmail ).toList();
+    }
+
+    private List<String> search( String organizationId, String prefix, int limit ) {
+        return userStorage.searchByOrganization( organizationId, prefix, limit ).map( DefaultUser::getEmail ).toList();
+    }
+
+    private Set<String> emails( String organizationId ) {
+        return emails( userStorage, organizationId );
+    }
+
+    private static Set<String> emails( UserStorage userStorage, String organizationId ) {
+        return userStorage.selectByOrganization( organizationId ).map( DefaultUser::getEmail ).collect( toSet() );
+    }
+
+    private static Set<String> set( String... emails ) {
+        return new HashSet<>( asList( emails ) );
+    }
+}